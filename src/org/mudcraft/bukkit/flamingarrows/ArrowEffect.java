@@ -0,0 +1,84 @@
+/**
+ * @file ArrowEffect.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.util.List;
+
+import org.bukkit.entity.Arrow;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Something which happens when a flaming arrow strikes.  Effects are
+ * registered with the {@link ArrowEffectPipeline} by name and assigned to
+ * each {@link ArrowType} in the configuration file.  Most effects should
+ * extend {@link ArrowEffectAdapter} rather than implement this interface
+ * directly.
+ * @author Geoffrey Davis
+ */
+public interface ArrowEffect {
+    /**
+     * The points at which an effect can be applied.
+     */
+    enum Phase {
+        /**
+         * A flaming arrow struck a player or mobile.
+         * @see ArrowEffect#onHitEntity(Arrow, LivingEntity)
+         */
+        HIT_ENTITY,
+
+        /**
+         * A flaming arrow landed.
+         * @see ArrowEffect#onHitBlock(Arrow)
+         */
+        HIT_BLOCK,
+
+        /**
+         * A mobile which was burning died.
+         * @see ArrowEffect#onDeath(LivingEntity, List)
+         */
+        DEATH
+    }
+
+    /**
+     * Gets the name used for the effect in the configuration file.
+     * @return the effect name
+     */
+    String getName();
+
+    /**
+     * Gets whether the effect does anything during a {@link Phase}.  The
+     * pipeline only calls an effect for the phases it handles.
+     * @param phase the {@link Phase}
+     * @return <code>true</code> if the effect handles the phase
+     */
+    boolean handles(Phase phase);
+
+    /**
+     * Called when a mobile which was burning dies.
+     * @param entity the {@link LivingEntity} which died
+     * @param drops the items it will drop, which may be modified
+     */
+    void onDeath(LivingEntity entity, List<ItemStack> drops);
+
+    /**
+     * Called when a flaming arrow lands.
+     * @param arrow the {@link Arrow} object
+     */
+    void onHitBlock(Arrow arrow);
+
+    /**
+     * Called when a flaming arrow strikes a player or mobile.
+     * @param arrow the {@link Arrow} object
+     * @param target the {@link LivingEntity} which was struck
+     */
+    void onHitEntity(Arrow arrow, LivingEntity target);
+}
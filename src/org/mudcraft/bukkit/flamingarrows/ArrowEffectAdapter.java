@@ -0,0 +1,80 @@
+/**
+ * @file ArrowEffectAdapter.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import org.bukkit.entity.Arrow;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * A convenient base class for {@link ArrowEffect}s.  Subclasses name the
+ * phases they handle and override the matching methods.
+ * @author Geoffrey Davis
+ */
+public abstract class ArrowEffectAdapter implements ArrowEffect {
+    /**
+     * Constructs a new {@link ArrowEffectAdapter} instance.
+     * @param name the effect name
+     * @param first the first {@link ArrowEffect.Phase} handled
+     * @param rest any other {@link ArrowEffect.Phase}s handled
+     */
+    protected ArrowEffectAdapter(String name, Phase first, Phase... rest) {
+        this.name = name;
+        this.phases = EnumSet.of(first, rest);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean handles(Phase phase) {
+        return phases.contains(phase);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void onDeath(LivingEntity entity, List<ItemStack> drops) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void onHitBlock(Arrow arrow) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void onHitEntity(Arrow arrow, LivingEntity target) {
+    }
+
+    /**
+     * The effect name.
+     * @see #getName()
+     */
+    private final String name;
+
+    /**
+     * The phases handled by the effect.
+     * @see #handles(ArrowEffect.Phase)
+     */
+    private final EnumSet<Phase> phases;
+}
@@ -0,0 +1,298 @@
+/**
+ * @file ArrowEffectPipeline.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.bukkit.entity.Arrow;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Applies the {@link ArrowEffect}s configured for each {@link ArrowType}.
+ * When the settings are loaded the effect names are compiled into a flat
+ * array of stages per arrow type and phase, so dispatching an event is a
+ * simple loop.  Each stage keeps track of the time spent in its effect.
+ * @author Geoffrey Davis
+ */
+public class ArrowEffectPipeline {
+    /**
+     * Constructs a new {@link ArrowEffectPipeline} instance.
+     * @param plugin the {@link FlamingArrows} object
+     */
+    public ArrowEffectPipeline(FlamingArrows plugin) {
+        this.plugin = plugin;
+        
+        // Register the built-in effects.
+        ArrowEffects.registerDefaults(this);
+    }
+    
+    /**
+     * Compiles the effects configured for each {@link ArrowType} into
+     * stages.  Called whenever the settings are loaded.
+     */
+    public void compile() {
+        // The death stages for all arrow types, by effect name.
+        final Map<String, Stage> death = new LinkedHashMap<String, Stage>();
+        
+        for (ArrowType type: ArrowType.values()) {
+            // The stages for each phase of this arrow type.
+            final List<Stage> hitEntity = new ArrayList<Stage>();
+            final List<Stage> hitBlock = new ArrayList<Stage>();
+            final List<Stage> typeDeath = new ArrayList<Stage>();
+            
+            for (String name: getPlugin().getSettings().getEffectNames(type)) {
+                // Look up the effect by name.
+                final ArrowEffect effect = effects.get(name.trim().toLowerCase());
+                if (effect == null) {
+                    if (FlamingArrows.logger().isLoggable(Level.WARNING)) {
+                        // Write a warning message to the logger.
+                        FlamingArrows.logger().warning(
+                                "Unknown arrow effect: " + name);
+                    }
+                    continue;
+                }
+                
+                // Add a stage for each phase the effect handles.
+                if (effect.handles(ArrowEffect.Phase.HIT_ENTITY))
+                    hitEntity.add(new Stage(type, ArrowEffect.Phase.HIT_ENTITY, effect));
+                if (effect.handles(ArrowEffect.Phase.HIT_BLOCK))
+                    hitBlock.add(new Stage(type, ArrowEffect.Phase.HIT_BLOCK, effect));
+                
+                if (effect.handles(ArrowEffect.Phase.DEATH))
+                    typeDeath.add(new Stage(type, ArrowEffect.Phase.DEATH, effect));
+                
+                // When we can't tell which arrow set a mobile on fire,
+                // every death effect of every arrow type is applied once.
+                if (effect.handles(ArrowEffect.Phase.DEATH) &&
+                    death.containsKey(effect.getName()) == false)
+                    death.put(effect.getName(),
+                            new Stage(type, ArrowEffect.Phase.DEATH, effect));
+            }
+            hitEntityStages[type.ordinal()] =
+                hitEntity.toArray(new Stage[hitEntity.size()]);
+            hitBlockStages[type.ordinal()] =
+                hitBlock.toArray(new Stage[hitBlock.size()]);
+            typeDeathStages[type.ordinal()] =
+                typeDeath.toArray(new Stage[typeDeath.size()]);
+        }
+        deathStages = death.values().toArray(new Stage[death.size()]);
+    }
+    
+    /**
+     * Applies the death effects to a mobile which was burning.
+     * @param entity the {@link LivingEntity} which died
+     * @param drops the items it will drop
+     */
+    public void dispatchDeath(LivingEntity entity, List<ItemStack> drops) {
+        for (Stage stage: deathStages) {
+            final long start = System.nanoTime();
+            stage.effect.onDeath(entity, drops);
+            stage.record(start);
+        }
+    }
+    
+    /**
+     * Applies the death effects of one {@link ArrowType} to a mobile which
+     * was set on fire by an arrow of that type.
+     * @param type the {@link ArrowType}
+     * @param entity the {@link LivingEntity} which died
+     * @param drops the items it will drop
+     */
+    public void dispatchDeath(ArrowType type, LivingEntity entity,
+                              List<ItemStack> drops) {
+        for (Stage stage: typeDeathStages[type.ordinal()]) {
+            final long start = System.nanoTime();
+            stage.effect.onDeath(entity, drops);
+            stage.record(start);
+        }
+    }
+    
+    /**
+     * Applies the effects of an arrow which has landed.
+     * @param type the {@link ArrowType}
+     * @param arrow the {@link Arrow} object
+     */
+    public void dispatchHitBlock(ArrowType type, Arrow arrow) {
+        for (Stage stage: hitBlockStages[type.ordinal()]) {
+            final long start = System.nanoTime();
+            stage.effect.onHitBlock(arrow);
+            stage.record(start);
+        }
+    }
+    
+    /**
+     * Applies the effects of an arrow which struck a player or mobile.
+     * @param type the {@link ArrowType}
+     * @param arrow the {@link Arrow} object
+     * @param target the {@link LivingEntity} which was struck
+     */
+    public void dispatchHitEntity(ArrowType type, Arrow arrow, LivingEntity target) {
+        for (Stage stage: hitEntityStages[type.ordinal()]) {
+            final long start = System.nanoTime();
+            stage.effect.onHitEntity(arrow, target);
+            stage.record(start);
+        }
+    }
+    
+    /**
+     * Creates an empty set of stages for every {@link ArrowType}.
+     * @return the stages, by {@link ArrowType} ordinal
+     */
+    private static Stage[][] emptyStages() {
+        final Stage[][] stages = new Stage[ArrowType.values().length][];
+        for (int i = 0; i < stages.length; ++i)
+            stages[i] = new Stage[0];
+        return stages;
+    }
+    
+    /**
+     * Gets the plug-in.
+     * @return the {@link FlamingArrows} object
+     */
+    public FlamingArrows getPlugin() {
+        return plugin;
+    }
+    
+    /**
+     * Writes the time spent in each stage to the logger.
+     */
+    public void logTimings() {
+        if (FlamingArrows.logger().isLoggable(Level.INFO) == false)
+            return;
+        
+        // Gather every compiled stage.
+        final List<Stage> stages = new ArrayList<Stage>();
+        for (ArrowType type: ArrowType.values()) {
+            for (Stage stage: hitEntityStages[type.ordinal()])
+                stages.add(stage);
+            for (Stage stage: hitBlockStages[type.ordinal()])
+                stages.add(stage);
+            for (Stage stage: typeDeathStages[type.ordinal()])
+                stages.add(stage);
+        }
+        for (Stage stage: deathStages)
+            stages.add(stage);
+        
+        for (Stage stage: stages) {
+            // Skip the stages which were never used.
+            if (stage.calls == 0)
+                continue;
+            
+            // Write an informational message to the logger.
+            FlamingArrows.logger().info(String.format(
+                    "%s %s %s: %d calls, %.1f us average",
+                    stage.type, stage.phase, stage.effect.getName(),
+                    stage.calls, stage.nanos / 1000.0 / stage.calls));
+        }
+    }
+    
+    /**
+     * Registers an effect so it can be named in the configuration file.
+     * Effects registered after the settings are loaded take effect the
+     * next time they are loaded.
+     * @param effect the {@link ArrowEffect} object
+     */
+    public void registerEffect(ArrowEffect effect) {
+        effects.put(effect.getName().toLowerCase(), effect);
+    }
+    
+    /**
+     * An effect compiled into the pipeline for one arrow type and phase.
+     */
+    private static class Stage {
+        /**
+         * Constructs a new {@link Stage} instance.
+         * @param type the {@link ArrowType}
+         * @param phase the {@link ArrowEffect.Phase}
+         * @param effect the {@link ArrowEffect}
+         */
+        Stage(ArrowType type, ArrowEffect.Phase phase, ArrowEffect effect) {
+            this.type = type;
+            this.phase = phase;
+            this.effect = effect;
+        }
+        
+        /**
+         * Records a call to the effect.
+         * @param start the value of {@link System#nanoTime()} when the
+         *      call began
+         */
+        void record(long start) {
+            nanos += System.nanoTime() - start;
+            ++calls;
+        }
+        
+        /**
+         * The number of times the effect has been applied.
+         */
+        long calls = 0;
+        
+        /**
+         * The effect applied by the stage.
+         */
+        final ArrowEffect effect;
+        
+        /**
+         * The total time spent in the effect.
+         */
+        long nanos = 0;
+        
+        /**
+         * The phase the stage belongs to.
+         */
+        final ArrowEffect.Phase phase;
+        
+        /**
+         * The arrow type the stage belongs to.
+         */
+        final ArrowType type;
+    }
+    
+    /**
+     * The stages applied when a burning mobile dies and the arrow which
+     * set it on fire isn't known.
+     */
+    private Stage[] deathStages = new Stage[0];
+    
+    /**
+     * The registered effects, by lowercase name.
+     */
+    private final Map<String, ArrowEffect> effects =
+        new LinkedHashMap<String, ArrowEffect>();
+    
+    /**
+     * The stages applied when an arrow lands, by {@link ArrowType} ordinal.
+     */
+    private final Stage[][] hitBlockStages = emptyStages();
+    
+    /**
+     * The stages applied when an arrow strikes a player or mobile, by
+     * {@link ArrowType} ordinal.
+     */
+    private final Stage[][] hitEntityStages = emptyStages();
+    
+    /**
+     * The stages applied when a mobile set on fire by a known arrow dies,
+     * by {@link ArrowType} ordinal.
+     */
+    private final Stage[][] typeDeathStages = emptyStages();
+    
+    /**
+     * The {@link FlamingArrows} object
+     * @see #getPlugin()
+     */
+    private final FlamingArrows plugin;
+}
@@ -0,0 +1,254 @@
+/**
+ * @file ArrowEffects.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.util.List;
+
+import org.bukkit.Material;
+import org.bukkit.entity.Arrow;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.Vector;
+
+/**
+ * The {@link ArrowEffect}s built into Flaming Arrows!
+ * @author Geoffrey Davis
+ */
+public final class ArrowEffects {
+    /**
+     * This class only has static members.
+     */
+    private ArrowEffects() {
+    }
+
+    /**
+     * Registers the built-in effects with a pipeline.
+     * @param pipeline the {@link ArrowEffectPipeline} object
+     */
+    public static void registerDefaults(ArrowEffectPipeline pipeline) {
+        final FlamingArrows plugin = pipeline.getPlugin();
+        pipeline.registerEffect(new Ignite(plugin));
+        pipeline.registerEffect(new PlaceFire(plugin));
+        pipeline.registerEffect(new Incendiary(plugin));
+        pipeline.registerEffect(new CookDrops(plugin));
+        pipeline.registerEffect(new Knockback());
+        pipeline.registerEffect(new Slow());
+    }
+
+    /**
+     * Turns the pork dropped by burning pigs into grilled pork.
+     */
+    public static class CookDrops extends ArrowEffectAdapter {
+        /**
+         * Constructs a new {@link CookDrops} instance.
+         * @param plugin the {@link FlamingArrows} object
+         */
+        public CookDrops(FlamingArrows plugin) {
+            super("cook-drops", Phase.DEATH);
+            this.plugin = plugin;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onDeath(LivingEntity entity, List<ItemStack> drops) {
+            // The number of items we cooked.
+            int cooked = 0;
+            
+            // Iterate over the item drops.
+            for (ItemStack item: drops) {
+                // Was the drop a piece of pork?
+                if (item.getType() == Material.PORK) {
+                    // Set the item drop to grilled pork.
+                    item.setType(Material.GRILLED_PORK);
+                    ++cooked;
+                }
+            }
+            
+            // Record the cooked drops.
+            plugin.getTrace().record(ArrowTrace.Kind.DROPS_COOKED,
+                    entity.getEntityId(), cooked);
+        }
+
+        /**
+         * The {@link FlamingArrows} object
+         */
+        private final FlamingArrows plugin;
+    }
+
+    /**
+     * Sets players and mobiles struck by the arrow on fire, and remembers
+     * who did it so the victim's death can be credited to them.  Arrow
+     * types without this effect are never credited with a kill.
+     */
+    public static class Ignite extends ArrowEffectAdapter {
+        /**
+         * Constructs a new {@link Ignite} instance.
+         * @param plugin the {@link FlamingArrows} object
+         */
+        public Ignite(FlamingArrows plugin) {
+            super("ignite", Phase.HIT_ENTITY);
+            this.plugin = plugin;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onHitEntity(Arrow arrow, LivingEntity target) {
+            // This is the number of fire ticks.
+            final int fireTicks = plugin.getSettings().getFireTicks(target);
+            
+            if (fireTicks != 0) {
+                // Record the ignition.
+                plugin.getTrace().record(ArrowTrace.Kind.IGNITION,
+                        target.getEntityId(), fireTicks);
+                
+                // Queue the fire ticks; the buffer applies the largest
+                // value once per entity at the end of the tick.
+                plugin.getFireTickBuffer().ignite(target, fireTicks);
+                
+                if (arrow.getShooter() != null) {
+                    // Remember who set the target on fire.
+                    plugin.getBurnAttribution().record(target.getEntityId(),
+                            arrow.getShooter(),
+                            plugin.getArrowManager().getArrowType(arrow),
+                            fireTicks);
+                }
+            }
+        }
+
+        /**
+         * The {@link FlamingArrows} object
+         */
+        private final FlamingArrows plugin;
+    }
+
+    /**
+     * Sets fire to the blocks and entities around the point of impact.
+     */
+    public static class Incendiary extends ArrowEffectAdapter {
+        /**
+         * Constructs a new {@link Incendiary} instance.
+         * @param plugin the {@link FlamingArrows} object
+         */
+        public Incendiary(FlamingArrows plugin) {
+            super("incendiary", Phase.HIT_BLOCK);
+            this.plugin = plugin;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onHitBlock(Arrow arrow) {
+            plugin.getIncendiaryTask().addBlast(arrow.getLocation(),
+                    plugin.getSettings().getIncendiaryRadius());
+        }
+
+        /**
+         * The {@link FlamingArrows} object
+         */
+        private final FlamingArrows plugin;
+    }
+
+    /**
+     * Pushes players and mobiles struck by the arrow along its path.
+     */
+    public static class Knockback extends ArrowEffectAdapter {
+        /**
+         * Constructs a new {@link Knockback} instance.
+         */
+        public Knockback() {
+            super("knockback", Phase.HIT_ENTITY);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onHitEntity(Arrow arrow, LivingEntity target) {
+            // Find the direction the arrow was travelling in.
+            final Vector direction = arrow.getVelocity();
+            if (direction.lengthSquared() == 0)
+                return;
+            
+            // Push the target along it, and lift them off the ground.
+            target.setVelocity(target.getVelocity().add(
+                    direction.normalize().multiply(STRENGTH).setY(LIFT)));
+        }
+
+        /**
+         * The upward velocity given to the target.
+         */
+        private static final double LIFT = 0.3;
+
+        /**
+         * The velocity given to the target along the arrow's path.
+         */
+        private static final double STRENGTH = 0.8;
+    }
+
+    /**
+     * Looks for a flammable place near the point of impact and starts
+     * a fire there.
+     */
+    public static class PlaceFire extends ArrowEffectAdapter {
+        /**
+         * Constructs a new {@link PlaceFire} instance.
+         * @param plugin the {@link FlamingArrows} object
+         */
+        public PlaceFire(FlamingArrows plugin) {
+            super("place-fire", Phase.HIT_BLOCK);
+            this.plugin = plugin;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onHitBlock(Arrow arrow) {
+            // Look for a flammable place to start the fire off the main thread.
+            plugin.getFlammabilityAnalyzer().analyze(arrow);
+        }
+
+        /**
+         * The {@link FlamingArrows} object
+         */
+        private final FlamingArrows plugin;
+    }
+
+    /**
+     * Slows down players and mobiles struck by the arrow.
+     */
+    public static class Slow extends ArrowEffectAdapter {
+        /**
+         * Constructs a new {@link Slow} instance.
+         */
+        public Slow() {
+            super("slow", Phase.HIT_ENTITY);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onHitEntity(Arrow arrow, LivingEntity target) {
+            target.setVelocity(target.getVelocity().multiply(FACTOR));
+        }
+
+        /**
+         * The fraction of the target's velocity which is kept.
+         */
+        private static final double FACTOR = 0.2;
+    }
+}
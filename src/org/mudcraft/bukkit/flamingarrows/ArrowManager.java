@@ -10,9 +10,15 @@
  */
 package org.mudcraft.bukkit.flamingarrows;
 
-import java.util.HashSet;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.logging.Level;
 
+import org.bukkit.entity.Arrow;
 import org.bukkit.entity.Player;
 
 /**
@@ -27,12 +33,229 @@ public class ArrowManager {
         this.plugin = plugin;
     }
     
+    /**
+     * Gets the type of arrow a {@link Player} is firing.
+     * @param player the {@link Player} object
+     * @return the {@link ArrowType}, or <code>null</code> if the player
+     *      does not have flaming arrows enabled
+     */
+    public ArrowType getArrowType(Player player) {
+        return players.get(player);
+    }
+    
+    /**
+     * Gets the type of a tracked {@link Arrow}.
+     * @param arrow the {@link Arrow} object
+     * @return the {@link ArrowType}; untracked arrows are
+     *      {@link ArrowType#FLAMING}
+     */
+    public ArrowType getArrowType(Arrow arrow) {
+        final TrackedArrow tracked = arrows.get(arrow.getEntityId());
+        return tracked != null ? tracked.type : ArrowType.FLAMING;
+    }
+    
     /**
      * Gets the {@link Player}s who presently have flaming arrows enabled.
+     * Players can be removed from the returned {@link Set}, which does not
+     * change their saved state, but must be added using
+     * {@link #setArrowType(Player, ArrowType)}.
      * @return a {@link Set} of {@link Player}s
      */
     public Set<Player> getPlayers() {
-        return players;
+        return players.keySet();
+    }
+    
+    /**
+     * Gets the number of saved arrow types, including those of players
+     * who are offline.
+     * @return the number of saved arrow types
+     */
+    public int getSavedTypeCount() {
+        return stateStore != null ? stateStore.size() : 0;
+    }
+    
+    /**
+     * Gets the number of {@link Arrow}s being tracked.
+     * @return the number of tracked arrows
+     */
+    public int getTrackedArrowCount() {
+        return arrows.size();
+    }
+    
+    /**
+     * Gets the store which holds each player's saved state.
+     * @return the {@link ArrowStateStore} object
+     */
+    public ArrowStateStore getStateStore() {
+        return stateStore;
+    }
+    
+    /**
+     * Opens the configured state store and restores the saved arrow types
+     * of the {@link Player}s already online.
+     */
+    public void load() {
+        stateStore = null;
+        
+        if ("mapped".equals(getPlugin().getSettings().getStateBackend())) {
+            // Share state with the other servers on this host.
+            final String path = getPlugin().getSettings().getStateFile();
+            final File stateFile = path.length() > 0 ? new File(path) :
+                new File(getPlugin().getDataFolder(), "state.dat");
+            final ArrowStateStore mapped = new MappedStateStore(stateFile,
+                    getPlugin().getSettings().getStateSlots());
+            try {
+                mapped.open();
+                stateStore = mapped;
+            } catch (IOException ex) {
+                if (FlamingArrows.logger().isLoggable(Level.WARNING)) {
+                    // Write a warning message to the logger.
+                    FlamingArrows.logger().warning(ex.getMessage() +
+                            "; falling back to the memory state backend");
+                }
+            }
+        }
+        
+        if (stateStore == null) {
+            // Keep state in memory, saving arrow types to the toggle log.
+            stateStore = new MemoryStateStore(
+                    getPlugin().getSettings().isPersistenceEnabled() ?
+                        new ToggleLog(new File(getPlugin().getDataFolder(), "toggles.log")) :
+                        null);
+            try {
+                stateStore.open();
+            } catch (IOException ex) {
+                if (FlamingArrows.logger().isLoggable(Level.WARNING)) {
+                    // Write a warning message to the logger.
+                    FlamingArrows.logger().warning(ex.getMessage() +
+                            "; state will not be saved until the next reload");
+                }
+                
+                // Keep state in memory alone.
+                stateStore = new MemoryStateStore(null);
+                try {
+                    stateStore.open();
+                } catch (IOException ex2) {
+                    // The memory store never fails to open without a log.
+                }
+            }
+        }
+        
+        // Restore the players who are already online, e.g. after a reload.
+        for (Player player: getPlugin().getServer().getOnlinePlayers()) {
+            restore(player);
+        }
+    }
+    
+    /**
+     * Stops tracking {@link Arrow}s which were removed from the world
+     * without landing, e.g. by falling out of the world.
+     * @return the number of arrows removed
+     */
+    public int pruneArrows() {
+        int removed = 0;
+        for (Iterator<TrackedArrow> it = arrows.values().iterator(); it.hasNext();) {
+            if (it.next().arrow.isDead()) {
+                it.remove();
+                ++removed;
+            }
+        }
+        return removed;
+    }
+    
+    /**
+     * Forgets {@link Player}s who left without a quit event reaching us.
+     * Their saved arrow types are kept.
+     * @return the number of players removed
+     */
+    public int prunePlayers() {
+        int removed = 0;
+        for (Iterator<Player> it = players.keySet().iterator(); it.hasNext();) {
+            if (it.next().isOnline() == false) {
+                it.remove();
+                ++removed;
+            }
+        }
+        return removed;
+    }
+    
+    /**
+     * Restores the saved arrow type of a {@link Player}, normally when
+     * they join the server.  A saved type the player is no longer
+     * permitted to fire is dropped.
+     * @param player the {@link Player} object
+     */
+    public void restore(Player player) {
+        final ArrowType type = stateStore.getArrowType(player.getName().toLowerCase());
+        if (type == null)
+            return;
+        
+        if (FlamingArrows.hasPermission(player, type.getPermission())) {
+            players.put(player, type);
+        } else {
+            // Forget the saved type so it isn't restored again.
+            stateStore.setArrowType(player.getName().toLowerCase(), null);
+        }
+    }
+    
+    /**
+     * Sets the type of arrow a {@link Player} is firing and saves it.
+     * @param player the {@link Player} object
+     * @param type the {@link ArrowType}, or <code>null</code> to disable
+     *      flaming arrows
+     */
+    public void setArrowType(Player player, ArrowType type) {
+        if (type == null) {
+            players.remove(player);
+        } else {
+            players.put(player, type);
+        }
+        
+        // Save the change for the next time the player joins.
+        stateStore.setArrowType(player.getName().toLowerCase(), type);
+    }
+    
+    /**
+     * Closes the state store and forgets the {@link Player}s who have
+     * flaming arrows enabled.
+     */
+    public void unload() {
+        players.clear();
+        arrows.clear();
+        
+        if (stateStore != null) {
+            // Write out the last of the saved state.
+            stateStore.close();
+            stateStore = null;
+        }
+    }
+    
+    /**
+     * Starts tracking an {@link Arrow} in flight.  Only arrows other than
+     * {@link ArrowType#FLAMING} need to be tracked.  Arrows which vanished
+     * without landing are pruned whenever the map has doubled since the
+     * last prune, so it stays bounded without the leak watchdog.
+     * @param arrow the {@link Arrow} object
+     * @param type the {@link ArrowType}
+     */
+    public void trackArrow(Arrow arrow, ArrowType type) {
+        if (arrows.size() >= arrowPruneSize) {
+            // Forget the arrows which are gone before tracking more.
+            pruneArrows();
+            arrowPruneSize = Math.max(arrows.size() * 2, MIN_PRUNE_SIZE);
+        }
+        arrows.put(arrow.getEntityId(), new TrackedArrow(arrow, type));
+    }
+    
+    /**
+     * Stops tracking an {@link Arrow}, normally once it has landed.
+     * @param arrow the {@link Arrow} object
+     * @return the {@link ArrowType}; untracked arrows are
+     *      {@link ArrowType#FLAMING}
+     */
+    public ArrowType untrackArrow(Arrow arrow) {
+        final TrackedArrow tracked = arrows.remove(arrow.getEntityId());
+        return tracked != null ? tracked.type : ArrowType.FLAMING;
     }
     
     /**
@@ -44,10 +267,63 @@ public class ArrowManager {
     }
     
     /**
-     * Contains the {@link Player}s who presently have flaming arrows enabled.
+     * An {@link Arrow} in flight and its {@link ArrowType}.
+     */
+    private static class TrackedArrow {
+        /**
+         * Constructs a new {@link TrackedArrow} instance.
+         * @param arrow the {@link Arrow} object
+         * @param type the {@link ArrowType}
+         */
+        TrackedArrow(Arrow arrow, ArrowType type) {
+            this.arrow = arrow;
+            this.type = type;
+        }
+        
+        /**
+         * The arrow in flight.
+         */
+        final Arrow arrow;
+        
+        /**
+         * The type of the arrow.
+         */
+        final ArrowType type;
+    }
+    
+    /**
+     * The smallest number of tracked arrows at which they're pruned.
+     */
+    private static final int MIN_PRUNE_SIZE = 64;
+    
+    /**
+     * The number of tracked arrows at which they're next pruned.
+     * @see #trackArrow(Arrow, ArrowType)
+     */
+    private int arrowPruneSize = MIN_PRUNE_SIZE;
+    
+    /**
+     * Maps the entity IDs of tracked {@link Arrow}s in flight to the
+     * arrow and its {@link ArrowType}.
+     * @see #trackArrow(Arrow, ArrowType)
+     */
+    private final Map<Integer, TrackedArrow> arrows =
+        new HashMap<Integer, TrackedArrow>();
+    
+    /**
+     * Maps the {@link Player}s who presently have flaming arrows enabled
+     * to the type of arrow they are firing.
      * @see #getPlayers()
      */
-    private final Set<Player> players = new HashSet<Player>();
+    private final Map<Player, ArrowType> players =
+        new HashMap<Player, ArrowType>();
+    
+    /**
+     * The store which holds each player's saved state, or
+     * <code>null</code> if it isn't open.
+     * @see #getStateStore()
+     */
+    private ArrowStateStore stateStore;
     
     /**
      * The {@link FlamingArrows} object
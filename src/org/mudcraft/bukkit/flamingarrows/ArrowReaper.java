@@ -0,0 +1,377 @@
+/**
+ * @file ArrowReaper.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Arrow;
+
+/**
+ * Removes flaming arrows which have landed, so that archery ranges don't
+ * fill up with burning entities.  Landed arrows are indexed by chunk;
+ * once a chunk holds more than the configured number, its oldest arrows
+ * are removed first, and arrows which have been stuck for longer than
+ * the configured age are removed as well.
+ * <p>
+ * Arrows are only ever removed from a repeating task, a bounded batch at
+ * a time.  When a maximum age is set, a single queue orders the landed
+ * arrows by age, so the task only ever looks at the oldest arrows; arrows
+ * which have already gone are skipped when they reach the front of the
+ * queue, and arrows removed for their chunk's cap leave it at once.  The
+ * chunk index drops arrows which have gone each time it doubles in size,
+ * so it stays bounded even with no maximum age.
+ * @author Geoffrey Davis
+ */
+public class ArrowReaper implements Runnable {
+    /**
+     * Constructs a new {@link ArrowReaper} instance.
+     * @param plugin the {@link FlamingArrows} object
+     */
+    public ArrowReaper(FlamingArrows plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Forgets every landed arrow and stops the task.  The arrows
+     * themselves are left in the world.
+     */
+    public void cancel() {
+        chunks.clear();
+        ages.clear();
+        doomed.clear();
+        indexed = 0;
+        pruneSize = MIN_PRUNE_SIZE;
+        stop();
+    }
+
+    /**
+     * Gets the number of landed arrows being watched or waiting to be
+     * removed, including arrows which have gone but haven't been noticed
+     * yet.
+     * @return the number of landed arrows
+     */
+    public int getPendingCount() {
+        return indexed + doomed.size();
+    }
+
+    /**
+     * Gets the plug-in.
+     * @return the {@link FlamingArrows} object
+     */
+    public FlamingArrows getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Drops the arrows which have gone, e.g. by being picked up, from the
+     * chunk index and the age queue.
+     * @return the number of arrows dropped
+     */
+    public int prune() {
+        int removed = 0;
+        for (Iterator<Map<Long, ArrayDeque<Landed>>> wit =
+                chunks.values().iterator(); wit.hasNext();) {
+            final Map<Long, ArrayDeque<Landed>> worldChunks = wit.next();
+            for (Iterator<ArrayDeque<Landed>> cit =
+                    worldChunks.values().iterator(); cit.hasNext();) {
+                final ArrayDeque<Landed> chunk = cit.next();
+                for (Iterator<Landed> it = chunk.iterator(); it.hasNext();) {
+                    final Landed landed = it.next();
+                    if (landed.arrow.isDead()) {
+                        // Take the arrow out of the age queue as well.
+                        ages.remove(landed);
+                        it.remove();
+                        --indexed;
+                        ++removed;
+                    }
+                }
+                if (chunk.isEmpty())
+                    cit.remove();
+            }
+            if (worldChunks.isEmpty())
+                wit.remove();
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the next batch of arrows.  Runs on the main thread.
+     */
+    public void run() {
+        // The number of arrows we may still remove this run.
+        int budget = getPlugin().getSettings().getReaperBatchSize();
+
+        // Arrows over their chunk's cap go first.
+        while (budget > 0 && doomed.isEmpty() == false) {
+            if (remove(doomed.poll()))
+                --budget;
+        }
+
+        // Then the arrows which have been stuck for too long.
+        final long maxAge = getPlugin().getSettings().getReaperMaxAge() * 1000L;
+        if (maxAge <= 0) {
+            // The age limit was turned off since the arrows landed; they
+            // stay in the chunk index for the cap.
+            ages.clear();
+        }
+        final long now = System.currentTimeMillis();
+        for (Iterator<Landed> it = ages.iterator(); budget > 0 && it.hasNext();) {
+            final Landed landed = it.next();
+
+            if (landed.arrow.isDead() == false) {
+                // The queue is oldest first, so we can stop at the first
+                // arrow which is young enough.
+                if (now - landed.landed < maxAge)
+                    break;
+                if (remove(landed))
+                    --budget;
+            }
+
+            // Forget the arrow, whether we removed it or it already went.
+            unindex(landed);
+            it.remove();
+        }
+
+        // Stop the task while there is nothing left to time or remove.
+        if (ages.isEmpty() && doomed.isEmpty())
+            stop();
+    }
+
+    /**
+     * Starts watching a flaming {@link Arrow} which has landed.  If its
+     * chunk is over the cap, the chunk's oldest arrows are queued for
+     * removal.
+     * @param arrow the {@link Arrow} object
+     */
+    public void track(Arrow arrow) {
+        final int maxPerChunk = getPlugin().getSettings().getReaperMaxPerChunk();
+        final int maxAge = getPlugin().getSettings().getReaperMaxAge();
+        if (maxPerChunk <= 0 && maxAge <= 0)
+            return;
+
+        if (indexed >= pruneSize) {
+            // Forget the arrows which are gone before indexing more.
+            prune();
+            pruneSize = Math.max(indexed * 2, MIN_PRUNE_SIZE);
+        }
+
+        // Find the chunk in which the arrow landed.
+        final Location location = arrow.getLocation();
+        final Landed landed = new Landed(arrow, location.getWorld(),
+                chunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4));
+
+        // Index the arrow by chunk, and by age if it can grow too old.
+        final ArrayDeque<Landed> chunk = getChunk(landed.world, landed.chunk);
+        chunk.add(landed);
+        ++indexed;
+        if (maxAge > 0)
+            ages.add(landed);
+
+        if (maxPerChunk > 0 && chunk.size() > maxPerChunk) {
+            // Forget the arrows in the chunk which have already gone.
+            for (Iterator<Landed> it = chunk.iterator(); it.hasNext();) {
+                final Landed gone = it.next();
+                if (gone.arrow.isDead()) {
+                    ages.remove(gone);
+                    it.remove();
+                    --indexed;
+                }
+            }
+
+            // Queue the oldest of the rest for removal.
+            while (chunk.size() > maxPerChunk) {
+                final Landed oldest = chunk.poll();
+                --indexed;
+                ages.remove(oldest);
+                doomed.add(oldest);
+            }
+        }
+
+        if (taskId == -1 && (ages.isEmpty() == false || doomed.isEmpty() == false)) {
+            // Start reaping.
+            taskId = getPlugin().getServer().getScheduler()
+                .scheduleSyncRepeatingTask(getPlugin(), this, PERIOD, PERIOD);
+        }
+    }
+
+    /**
+     * Computes the key of a chunk in the index.
+     * @param cx the chunk X coordinate
+     * @param cz the chunk Z coordinate
+     * @return the chunk key
+     */
+    private static long chunkKey(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Gets the arrows which landed in a chunk, creating the queue if
+     * necessary.
+     * @param world the {@link World} object
+     * @param key the chunk key
+     * @return the arrows in the chunk, oldest first
+     */
+    private ArrayDeque<Landed> getChunk(World world, long key) {
+        Map<Long, ArrayDeque<Landed>> worldChunks = chunks.get(world);
+        if (worldChunks == null) {
+            worldChunks = new HashMap<Long, ArrayDeque<Landed>>();
+            chunks.put(world, worldChunks);
+        }
+
+        ArrayDeque<Landed> chunk = worldChunks.get(key);
+        if (chunk == null) {
+            chunk = new ArrayDeque<Landed>();
+            worldChunks.put(key, chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * Removes an arrow from the world.
+     * @param landed the {@link Landed} arrow
+     * @return <code>true</code> if the arrow was still in the world
+     */
+    private static boolean remove(Landed landed) {
+        if (landed.arrow.isDead())
+            return false;
+        landed.arrow.remove();
+        return true;
+    }
+
+    /**
+     * Stops the repeating task, leaving the chunk index as it is.
+     */
+    private void stop() {
+        if (taskId != -1) {
+            // Stop the repeating task.
+            getPlugin().getServer().getScheduler().cancelTask(taskId);
+            taskId = -1;
+        }
+    }
+
+    /**
+     * Takes an arrow out of its chunk's queue, dropping the queue once
+     * it's empty.
+     * @param landed the {@link Landed} arrow
+     */
+    private void unindex(Landed landed) {
+        final Map<Long, ArrayDeque<Landed>> worldChunks = chunks.get(landed.world);
+        if (worldChunks == null)
+            return;
+
+        final ArrayDeque<Landed> chunk = worldChunks.get(landed.chunk);
+        if (chunk == null)
+            return;
+
+        // The arrow is normally the oldest in its chunk, so this is cheap.
+        if (chunk.remove(landed))
+            --indexed;
+        if (chunk.isEmpty()) {
+            worldChunks.remove(landed.chunk);
+            if (worldChunks.isEmpty())
+                chunks.remove(landed.world);
+        }
+    }
+
+    /**
+     * A flaming arrow which has landed.
+     */
+    private static class Landed {
+        /**
+         * Constructs a new {@link Landed} instance.
+         * @param arrow the {@link Arrow} object
+         * @param world the {@link World} in which the arrow landed
+         * @param chunk the key of the chunk in which the arrow landed
+         */
+        Landed(Arrow arrow, World world, long chunk) {
+            this.arrow = arrow;
+            this.world = world;
+            this.chunk = chunk;
+            this.landed = System.currentTimeMillis();
+        }
+
+        /**
+         * The arrow.
+         */
+        final Arrow arrow;
+
+        /**
+         * The key of the chunk in which the arrow landed.
+         */
+        final long chunk;
+
+        /**
+         * The time at which the arrow landed.
+         */
+        final long landed;
+
+        /**
+         * The world in which the arrow landed.
+         */
+        final World world;
+    }
+
+    /**
+     * The smallest number of indexed arrows at which they're pruned.
+     */
+    private static final int MIN_PRUNE_SIZE = 64;
+
+    /**
+     * The number of ticks between runs of the task.
+     */
+    private static final long PERIOD = 5;
+
+    /**
+     * The landed arrows which can grow too old, oldest first.  Empty while
+     * there is no maximum age.
+     */
+    private final LinkedHashSet<Landed> ages = new LinkedHashSet<Landed>();
+
+    /**
+     * The landed arrows of each world, by chunk key, oldest first.
+     */
+    private final Map<World, Map<Long, ArrayDeque<Landed>>> chunks =
+        new HashMap<World, Map<Long, ArrayDeque<Landed>>>();
+
+    /**
+     * The arrows queued for removal because their chunk was over the cap.
+     */
+    private final ArrayDeque<Landed> doomed = new ArrayDeque<Landed>();
+
+    /**
+     * The number of arrows in the chunk index.
+     */
+    private int indexed = 0;
+
+    /**
+     * The {@link FlamingArrows} object
+     * @see #getPlugin()
+     */
+    private final FlamingArrows plugin;
+
+    /**
+     * The number of indexed arrows at which they're next pruned.
+     * @see #track(Arrow)
+     */
+    private int pruneSize = MIN_PRUNE_SIZE;
+
+    /**
+     * The ID of the repeating task, or <code>-1</code> if it isn't
+     * running.
+     */
+    private int taskId = -1;
+}
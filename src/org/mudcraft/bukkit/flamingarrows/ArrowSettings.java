@@ -11,11 +11,18 @@
 package org.mudcraft.bukkit.flamingarrows;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
 
 import org.bukkit.Material;
+import org.bukkit.entity.CreatureType;
+import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
+import org.bukkit.entity.Tameable;
 
 /**
  * @author Geoffrey Davis
@@ -29,6 +36,15 @@ public class ArrowSettings {
         this.plugin = plugin;
     }
     
+    /**
+     * Gets the largest number of burning victims whose shooter is
+     * remembered.
+     * @return the attribution capacity
+     */
+    public int getAttributionCapacity() {
+        return attributionCapacity;
+    }
+    
     /**
      * Gets the message displayed when Flaming Arrows! is disabled.
      * @return the disabled message
@@ -37,6 +53,16 @@ public class ArrowSettings {
         return disabledMessage;
     }
 
+    /**
+     * Gets the names of the {@link ArrowEffect}s applied by a type of
+     * arrow.
+     * @param type the {@link ArrowType}
+     * @return a {@link List} of effect names
+     */
+    public List<String> getEffectNames(ArrowType type) {
+        return effectNames.get(type);
+    }
+    
     /**
      * Gets the message displayed when Flaming Arrows! is enabled.
      * @return the enabled message
@@ -45,10 +71,95 @@ public class ArrowSettings {
         return enabledMessage;
     }
     
+    /**
+     * Gets the message displayed to a player credited with a kill by
+     * fire.  <code>%victim%</code> is replaced by the victim and
+     * <code>%kills%</code> by the player's total.
+     * @return the fire kill message, or an empty string for none
+     */
+    public String getFireKillMessage() {
+        return fireKillMessage;
+    }
+    
+    /**
+     * Gets the half-angle of the cone in which homing arrows look for
+     * targets.
+     * @return the cone angle, in degrees
+     */
+    public int getHomingConeAngle() {
+        return homingConeAngle;
+    }
+    
+    /**
+     * Gets the message displayed when homing arrows are enabled.
+     * @return the homing message
+     */
+    public String getHomingMessage() {
+        return homingMessage;
+    }
+    
+    /**
+     * Gets the distance at which homing arrows notice targets.
+     * @return the homing range, in blocks
+     */
+    public int getHomingRange() {
+        return homingRange;
+    }
+    
+    /**
+     * Gets how sharply homing arrows turn toward their target each tick.
+     * @return the percentage of the way to turn each tick
+     */
+    public int getHomingTurnRate() {
+        return homingTurnRate;
+    }
+    
+    /**
+     * Gets the message displayed when a player switches to a type of
+     * arrow.
+     * @param type the {@link ArrowType}, or <code>null</code> if flaming
+     *      arrows were disabled
+     * @return the message
+     */
+    public String getMessage(ArrowType type) {
+        if (type == null)
+            return getDisabledMessage();
+        switch (type) {
+        case INCENDIARY:
+            return getIncendiaryMessage();
+        case HOMING:
+            return getHomingMessage();
+        default:
+            return getEnabledMessage();
+        }
+    }
+    
+    /**
+     * Gets the message displayed when incendiary arrows are enabled.
+     * @return the incendiary message
+     */
+    public String getIncendiaryMessage() {
+        return incendiaryMessage;
+    }
+    
     public String getRanOutMessage() {
 		return ranOutMessage;
     }
 
+    /**
+     * Gets the names of the {@link ArrowEffect}s applied by a type of
+     * arrow when none are configured.
+     * @param type the {@link ArrowType}
+     * @return a {@link List} of effect names
+     */
+    private static List<String> getDefaultEffectNames(ArrowType type) {
+        final List<String> names = new ArrayList<String>();
+        names.add("ignite");
+        names.add(type == ArrowType.INCENDIARY ? "incendiary" : "place-fire");
+        names.add("cook-drops");
+        return names;
+    }
+    
     /**
      * Gets the flint & steel durability cost.
      * @return the  the number of units of flint & steel durability to
@@ -58,6 +169,61 @@ public class ArrowSettings {
         return flintAndSteelDurabilityCost;
     }
     
+    /**
+     * Gets the number of Minecraft ticks for which a {@link LivingEntity}
+     * burns once struck by a flaming arrow.  Creatures use the fire ticks
+     * configured for their {@link CreatureType}, falling back to the
+     * non-player fire ticks.
+     * @param target the {@link LivingEntity} object
+     * @return the number of fire ticks
+     */
+    public int getFireTicks(LivingEntity target) {
+        if (target instanceof Player)
+            return getPlayerFireTicks();
+        
+        // Tamed animals are only special if they've been configured.
+        if (tamedFireTicks >= 0 &&
+            target instanceof Tameable && ((Tameable) target).isTamed())
+            return tamedFireTicks;
+        
+        return creatureFireTicks[CreatureIndex.indexOf(target)];
+    }
+    
+    /**
+     * Gets the distance from the point of impact searched for a flammable
+     * place to start a fire.
+     * @return the ignition search radius, in blocks
+     */
+    public int getIgnitionSearchRadius() {
+        return ignitionSearchRadius;
+    }
+    
+    /**
+     * Gets the number of threads used to search for a place to start
+     * a fire.
+     * @return the number of worker threads
+     */
+    public int getIgnitionWorkerThreads() {
+        return ignitionWorkerThreads;
+    }
+    
+    /**
+     * Gets the maximum number of blocks and entities examined by
+     * incendiary arrows during a single tick.
+     * @return the number of blocks per tick
+     */
+    public int getIncendiaryBlocksPerTick() {
+        return incendiaryBlocksPerTick;
+    }
+    
+    /**
+     * Gets the radius of the blast caused by an incendiary arrow.
+     * @return the incendiary radius, in blocks
+     */
+    public int getIncendiaryRadius() {
+        return incendiaryRadius;
+    }
+    
     /**
      * Gets the number of Minecraft ticks for which {@link Player}
      * entities burn once struck by a flaming arrow.
@@ -100,6 +266,121 @@ public class ArrowSettings {
         return wand;
     }
     
+    /**
+     * Gets whether each player's arrow type is saved across reconnects
+     * and restarts.
+     * @return <code>true</code> if arrow types are saved
+     */
+    public boolean isPersistenceEnabled() {
+        return persistenceEnabled;
+    }
+    
+    /**
+     * Gets the largest number of arrows a player's quiver can hold.
+     * @return the quiver arrow capacity
+     */
+    public int getQuiverMaxArrows() {
+        return quiverMaxArrows;
+    }
+    
+    /**
+     * Gets the largest number of flint &amp; steel charges a player's
+     * quiver can hold.
+     * @return the quiver charge capacity
+     */
+    public int getQuiverMaxCharges() {
+        return quiverMaxCharges;
+    }
+    
+    /**
+     * Gets whether flaming arrows are drawn from each player's virtual
+     * quiver instead of their inventory.
+     * @return <code>true</code> if the quiver is enabled
+     */
+    public boolean isQuiverEnabled() {
+        return quiverEnabled;
+    }
+    
+    /**
+     * Gets the largest number of landed arrows removed in one run of the
+     * reaper.
+     * @return the reaper batch size
+     */
+    public int getReaperBatchSize() {
+        return reaperBatchSize;
+    }
+    
+    /**
+     * Gets the number of seconds a flaming arrow may stay stuck in a block
+     * before it is removed.
+     * @return the maximum arrow age, or <code>0</code> for no limit
+     */
+    public int getReaperMaxAge() {
+        return reaperMaxAge;
+    }
+    
+    /**
+     * Gets the number of landed flaming arrows a chunk may hold before the
+     * oldest are removed.
+     * @return the maximum arrows per chunk, or <code>0</code> for no limit
+     */
+    public int getReaperMaxPerChunk() {
+        return reaperMaxPerChunk;
+    }
+    
+    /**
+     * Gets the name of the backend which holds each player's state,
+     * either <code>memory</code> or <code>mapped</code>.
+     * @return the state backend name
+     */
+    public String getStateBackend() {
+        return stateBackend;
+    }
+    
+    /**
+     * Gets the path of the file shared by the <code>mapped</code> state
+     * backend.  Servers on the same host share state by naming the same
+     * file.
+     * @return the state file path, or an empty string to use
+     *      <code>state.dat</code> in the plug-in's data folder
+     */
+    public String getStateFile() {
+        return stateFile;
+    }
+    
+    /**
+     * Gets the number of player slots in a newly created state file.
+     * @return the number of state slots
+     */
+    public int getStateSlots() {
+        return stateSlots;
+    }
+    
+    /**
+     * Gets the number of events held by the trace ring buffer.
+     * @return the trace buffer size
+     */
+    public int getTraceBufferSize() {
+        return traceBufferSize;
+    }
+    
+    /**
+     * Gets whether plug-in activity is recorded to a trace file.
+     * @return <code>true</code> if tracing is enabled
+     */
+    public boolean isTraceEnabled() {
+        return traceEnabled;
+    }
+    
+    /**
+     * Gets the number of seconds between leak watchdog samples.
+     * @return the watchdog interval, or <code>0</code> if the watchdog is
+     *      disabled
+     */
+    public int getWatchdogInterval() {
+        return watchdogInterval;
+    }
+    
     /**
      * Gets whether a {@link Player} is on the white-list.
      * @param player the {@link Player} object
@@ -141,6 +422,51 @@ public class ArrowSettings {
         return Material.BOW;
     }
     
+    /**
+     * Reads the fire ticks for each {@link CreatureType} from the
+     * plug-in's configuration.  Creature types which aren't configured
+     * use the non-player fire ticks.
+     */
+    private void readCreatureFireTicks() {
+        // Start with every creature burning for the non-player fire ticks.
+        Arrays.fill(creatureFireTicks, nonPlayerFireTicks);
+        tamedFireTicks = -1;
+        
+        // Get the names of the configured creature types.
+        final List<String> names = getPlugin().getConfiguration().getKeys(
+                "flaming-arrows.fire-ticks.creatures");
+        if (names == null)
+            return;
+        
+        // Iterate over the configured creature types.
+        for (String name: names) {
+            // Read the creature's fire ticks and check the range.
+            final int fireTicks = Math.max(Math.min(
+                    getPlugin().getConfiguration().getInt(
+                        "flaming-arrows.fire-ticks.creatures." + name,
+                        nonPlayerFireTicks),
+                    600), 0);
+            
+            // Tamed animals have their own setting.
+            if (name.trim().equalsIgnoreCase("tamed")) {
+                tamedFireTicks = fireTicks;
+                continue;
+            }
+            
+            // Search for the creature type by name.
+            final CreatureType type = CreatureIndex.parseCreatureType(name);
+            if (type == null) {
+                if (FlamingArrows.logger().isLoggable(Level.WARNING)) {
+                    // Write a warning message to the logger.
+                    FlamingArrows.logger().warning(
+                            "Unknown creature type in fire-ticks: " + name);
+                }
+                continue;
+            }
+            creatureFireTicks[type.ordinal()] = fireTicks;
+        }
+    }
+    
     /**
      * Reads the settings from the plug-in's configuration.
      */
@@ -179,6 +505,21 @@ public class ArrowSettings {
                 "flaming-arrows.messages.enabled",
                 "*Flaming Arrows* You are now firing flaming arrows.");
         
+        // Read incendiary message from the configuration file.
+        incendiaryMessage = getPlugin().getConfiguration().getString(
+                "flaming-arrows.messages.incendiary",
+                "*Flaming Arrows* You are now firing incendiary arrows.");
+        
+        // Read fire kill message from the configuration file.
+        fireKillMessage = getPlugin().getConfiguration().getString(
+                "flaming-arrows.messages.fire-kill",
+                "*Flaming Arrows* Your flaming arrow killed %victim%. (%kills% fire kills)");
+        
+        // Read homing message from the configuration file.
+        homingMessage = getPlugin().getConfiguration().getString(
+                "flaming-arrows.messages.homing",
+                "*Flaming Arrows* You are now firing homing arrows.");
+        
         ranOutMessage = getPlugin().getConfiguration().getString(
                 "flaming-arrows.messages.ran-out",
         		"*Flaming Arrows* You don't have enough Flint & Steel");
@@ -188,6 +529,42 @@ public class ArrowSettings {
                 "flaming-arrows.charges-required.flint-and-steel",
                 5);
 
+        // Read ignition search radius from the configuration file.
+        ignitionSearchRadius = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.ignition.search-radius",
+                2);
+        
+        // Read ignition worker thread count from the configuration file.
+        ignitionWorkerThreads = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.ignition.worker-threads",
+                2);
+        
+        // Read the kill attribution capacity from the configuration file.
+        attributionCapacity = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.attribution.capacity",
+                4096);
+        
+        // Read homing settings from the configuration file.
+        homingConeAngle = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.homing.cone-angle",
+                30);
+        homingRange = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.homing.range",
+                16);
+        homingTurnRate = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.homing.turn-rate",
+                25);
+        
+        // Read incendiary blast radius from the configuration file.
+        incendiaryRadius = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.incendiary.radius",
+                3);
+        
+        // Read incendiary work budget from the configuration file.
+        incendiaryBlocksPerTick = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.incendiary.blocks-per-tick",
+                64);
+
         // Read non-player fire ticks from the configuration file.
         nonPlayerFireTicks = getPlugin().getConfiguration().getInt(
                 "flaming-arrows.fire-ticks.non-player",
@@ -198,6 +575,64 @@ public class ArrowSettings {
                 "flaming-arrows.fire-ticks.player",
                 playerFireTicks);
         
+        // Read persistence setting from the configuration file.
+        persistenceEnabled = getPlugin().getConfiguration().getBoolean(
+                "flaming-arrows.persistence.enabled",
+                true);
+        
+        // Read quiver settings from the configuration file.
+        quiverEnabled = getPlugin().getConfiguration().getBoolean(
+                "flaming-arrows.quiver.enabled",
+                false);
+        quiverMaxArrows = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.quiver.max-arrows",
+                256);
+        quiverMaxCharges = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.quiver.max-charges",
+                1280);
+        
+        // Read landed arrow limits from the configuration file.
+        reaperBatchSize = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.reaper.batch-size",
+                32);
+        reaperMaxAge = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.reaper.max-age",
+                30);
+        reaperMaxPerChunk = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.reaper.max-per-chunk",
+                32);
+        
+        // Read state backend settings from the configuration file.
+        stateBackend = getPlugin().getConfiguration().getString(
+                "flaming-arrows.state.backend",
+                "memory").trim().toLowerCase();
+        stateFile = getPlugin().getConfiguration().getString(
+                "flaming-arrows.state.file",
+                "").trim();
+        stateSlots = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.state.slots",
+                4096);
+        
+        // Read trace settings from the configuration file.
+        traceEnabled = getPlugin().getConfiguration().getBoolean(
+                "flaming-arrows.trace.enabled",
+                false);
+        traceBufferSize = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.trace.buffer-size",
+                65536);
+        
+        // Read the effects of each arrow type from the configuration file.
+        for (ArrowType type: ArrowType.values()) {
+            effectNames.put(type, getPlugin().getConfiguration().getStringList(
+                    "flaming-arrows.effects." + type.name().toLowerCase(),
+                    getDefaultEffectNames(type)));
+        }
+        
+        // Read the leak watchdog interval from the configuration file.
+        watchdogInterval = getPlugin().getConfiguration().getInt(
+                "flaming-arrows.watchdog.interval",
+                0);
+        
         // Read the player white-list from the configuration file.
         playerWhitelist = getPlugin().getConfiguration().getStringList(
                 "flaming-arrows.whitelist",
@@ -226,9 +661,55 @@ public class ArrowSettings {
         // Check the range of player fire ticks.
         playerFireTicks = Math.max(Math.min(playerFireTicks, 600), 0);
         
+        // Read the per-creature fire ticks from the configuration file.
+        readCreatureFireTicks();
+        
         // Check the range of flint & steel durability cost.
         flintAndSteelDurabilityCost =
             Math.max(Math.min(flintAndSteelDurabilityCost, 64), 0);
+        
+        // Check the range of the ignition search radius.
+        ignitionSearchRadius = Math.max(
+                Math.min(ignitionSearchRadius, IgnitionMasks.MAX_RADIUS), 0);
+        
+        // Check the range of the ignition worker thread count.
+        ignitionWorkerThreads =
+            Math.max(Math.min(ignitionWorkerThreads, 8), 1);
+        
+        // Check the range of the leak watchdog interval.
+        watchdogInterval = Math.max(Math.min(watchdogInterval, 3600), 0);
+        
+        // Check the range of the quiver capacities.
+        quiverMaxArrows = Math.max(Math.min(quiverMaxArrows, 65536), 1);
+        quiverMaxCharges = Math.max(Math.min(quiverMaxCharges, 65536), 64);
+        
+        // Check the range of the landed arrow limits.
+        reaperBatchSize = Math.max(Math.min(reaperBatchSize, 1024), 1);
+        reaperMaxAge = Math.max(Math.min(reaperMaxAge, 3600), 0);
+        reaperMaxPerChunk = Math.max(Math.min(reaperMaxPerChunk, 1024), 0);
+        
+        // Check the range of the state slot count.
+        stateSlots = Math.max(Math.min(stateSlots, 1048576), 64);
+        
+        // Check the range of the trace buffer size.
+        traceBufferSize = Math.max(Math.min(traceBufferSize, 1048576), 1024);
+        
+        // Check the range of the kill attribution capacity.
+        attributionCapacity =
+            Math.max(Math.min(attributionCapacity, 1048576), 64);
+        
+        // Check the range of the homing settings.
+        homingConeAngle = Math.max(Math.min(homingConeAngle, 90), 1);
+        homingRange = Math.max(Math.min(homingRange, 64), 1);
+        homingTurnRate = Math.max(Math.min(homingTurnRate, 100), 1);
+        
+        // Check the range of the incendiary blast radius.
+        incendiaryRadius = Math.max(
+                Math.min(incendiaryRadius, IgnitionMasks.MAX_RADIUS), 0);
+        
+        // Check the range of the incendiary work budget.
+        incendiaryBlocksPerTick =
+            Math.max(Math.min(incendiaryBlocksPerTick, 4096), 1);
     }
     
     /**
@@ -245,6 +726,52 @@ public class ArrowSettings {
     private String enabledMessage =
         "*Flaming Arrows* You are now firing flaming arrows.";
 
+    /**
+     * The largest number of burning victims whose shooter is remembered.
+     * @see #getAttributionCapacity()
+     */
+    private int attributionCapacity = 4096;
+    
+    /**
+     * This message is displayed to a player credited with a kill by fire.
+     * @see #getFireKillMessage()
+     */
+    private String fireKillMessage =
+        "*Flaming Arrows* Your flaming arrow killed %victim%. (%kills% fire kills)";
+    
+    /**
+     * The half-angle of the cone in which homing arrows look for targets.
+     * @see #getHomingConeAngle()
+     */
+    private int homingConeAngle = 30;
+    
+    /**
+     * This message is displayed when homing arrows are enabled.
+     * @see #getHomingMessage()
+     */
+    private String homingMessage =
+        "*Flaming Arrows* You are now firing homing arrows.";
+    
+    /**
+     * The distance at which homing arrows notice targets.
+     * @see #getHomingRange()
+     */
+    private int homingRange = 16;
+    
+    /**
+     * The percentage of the way homing arrows turn toward their target
+     * each tick.
+     * @see #getHomingTurnRate()
+     */
+    private int homingTurnRate = 25;
+    
+    /**
+     * This message is displayed when incendiary arrows are enabled.
+     * @see #getIncendiaryMessage()
+     */
+    private String incendiaryMessage =
+        "*Flaming Arrows* You are now firing incendiary arrows.";
+
     private String ranOutMessage = "*Flaming Arrows* You don't have enough Flint & Steel";
     /*
      * bladedpenguin says: I'll try to copy your style, but docs are for chumps.
@@ -255,6 +782,21 @@ public class ArrowSettings {
      * */ 
     
     
+    /**
+     * The number of Minecraft ticks for which each {@link CreatureType}
+     * burns once struck by a flaming arrow, indexed by
+     * {@link CreatureIndex#indexOf(org.bukkit.entity.Entity)}.
+     * @see #getFireTicks(LivingEntity)
+     */
+    private final int[] creatureFireTicks = new int[CreatureIndex.SIZE];
+    
+    /**
+     * The names of the {@link ArrowEffect}s applied by each type of arrow.
+     * @see #getEffectNames(ArrowType)
+     */
+    private final Map<ArrowType, List<String>> effectNames =
+        new EnumMap<ArrowType, List<String>>(ArrowType.class);
+    
     /**
      * The number of units of flint & steel durability to consume for
      * each flaming arrow released.
@@ -262,6 +804,32 @@ public class ArrowSettings {
      */
     private int flintAndSteelDurabilityCost = 5;
     
+    /**
+     * The distance from the point of impact searched for a flammable
+     * place to start a fire.
+     * @see #getIgnitionSearchRadius()
+     */
+    private int ignitionSearchRadius = 2;
+    
+    /**
+     * The number of threads used to search for a place to start a fire.
+     * @see #getIgnitionWorkerThreads()
+     */
+    private int ignitionWorkerThreads = 2;
+    
+    /**
+     * The maximum number of blocks and entities examined by incendiary
+     * arrows during a single tick.
+     * @see #getIncendiaryBlocksPerTick()
+     */
+    private int incendiaryBlocksPerTick = 64;
+    
+    /**
+     * The radius of the blast caused by an incendiary arrow.
+     * @see #getIncendiaryRadius()
+     */
+    private int incendiaryRadius = 3;
+    
     /**
      * The number of Minecraft ticks for which non-{@link Player} entities
      * burn once struck by a flaming arrow.
@@ -276,6 +844,88 @@ public class ArrowSettings {
      */
     private int playerFireTicks = 0;
     
+    /**
+     * The number of Minecraft ticks for which tamed animals burn once
+     * struck by a flaming arrow, or <code>-1</code> to treat them like
+     * any other creature.
+     * @see #getFireTicks(LivingEntity)
+     */
+    private int tamedFireTicks = -1;
+    
+    /**
+     * Whether each player's arrow type is saved.
+     * @see #isPersistenceEnabled()
+     */
+    private boolean persistenceEnabled = true;
+    
+    /**
+     * Whether flaming arrows are drawn from each player's quiver.
+     * @see #isQuiverEnabled()
+     */
+    private boolean quiverEnabled = false;
+    
+    /**
+     * The largest number of arrows a player's quiver can hold.
+     * @see #getQuiverMaxArrows()
+     */
+    private int quiverMaxArrows = 256;
+    
+    /**
+     * The largest number of flint &amp; steel charges a player's quiver
+     * can hold.
+     * @see #getQuiverMaxCharges()
+     */
+    private int quiverMaxCharges = 1280;
+    
+    /**
+     * The largest number of landed arrows removed in one run of the
+     * reaper.
+     * @see #getReaperBatchSize()
+     */
+    private int reaperBatchSize = 32;
+    
+    /**
+     * The number of seconds a flaming arrow may stay stuck in a block.
+     * @see #getReaperMaxAge()
+     */
+    private int reaperMaxAge = 30;
+    
+    /**
+     * The number of landed flaming arrows a chunk may hold.
+     * @see #getReaperMaxPerChunk()
+     */
+    private int reaperMaxPerChunk = 32;
+    
+    /**
+     * The name of the backend which holds each player's state.
+     * @see #getStateBackend()
+     */
+    private String stateBackend = "memory";
+    
+    /**
+     * The path of the file shared by the mapped state backend.
+     * @see #getStateFile()
+     */
+    private String stateFile = "";
+    
+    /**
+     * The number of player slots in a newly created state file.
+     * @see #getStateSlots()
+     */
+    private int stateSlots = 4096;
+    
+    /**
+     * The number of events held by the trace ring buffer.
+     * @see #getTraceBufferSize()
+     */
+    private int traceBufferSize = 65536;
+    
+    /**
+     * Whether plug-in activity is recorded to a trace file.
+     * @see #isTraceEnabled()
+     */
+    private boolean traceEnabled = false;
+    
     /**
      * The {@link Player}s who are permitted to use Flaming Arrows!
      * @see #getPlayerWhitelist();
@@ -294,5 +944,11 @@ public class ArrowSettings {
      */
     private Material wand = Material.BOW;
     
+    /**
+     * The number of seconds between leak watchdog samples.
+     * @see #getWatchdogInterval()
+     */
+    private int watchdogInterval = 0;
+    
     
 }
@@ -0,0 +1,119 @@
+/**
+ * @file ArrowStateStore.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.io.IOException;
+
+/**
+ * Holds the state Flaming Arrows! keeps for each player: the type of
+ * arrow they last selected and a handful of integer counters.  Players
+ * are identified by their lowercase name.
+ * @author Geoffrey Davis
+ * @see MemoryStateStore
+ * @see MappedStateStore
+ */
+public interface ArrowStateStore {
+    /**
+     * Adds to one of a player's counters.
+     * @param name the lowercase player name
+     * @param counter the counter index, less than {@link #COUNTERS}
+     * @param delta the amount to add, which may be negative
+     * @return the new value of the counter, or {@link #UNAVAILABLE} if the
+     *      store could not update it
+     */
+    int addCounter(String name, int counter, int delta);
+
+    /**
+     * Saves any outstanding changes and releases the store's resources.
+     */
+    void close();
+
+    /**
+     * Gets the type of arrow a player last selected.
+     * @param name the lowercase player name
+     * @return the {@link ArrowType}, or <code>null</code> if the player
+     *      does not have flaming arrows enabled
+     */
+    ArrowType getArrowType(String name);
+
+    /**
+     * Gets one of a player's counters.
+     * @param name the lowercase player name
+     * @param counter the counter index, less than {@link #COUNTERS}
+     * @return the value of the counter, or <code>0</code>
+     */
+    int getCounter(String name, int counter);
+
+    /**
+     * Gets whether the store keeps its state across restarts.
+     * @return <code>true</code> if the state is saved
+     */
+    boolean isPersistent();
+
+    /**
+     * Loads the store.  Must be called before any other method.
+     * @throws IOException if the store could not be loaded
+     */
+    void open() throws IOException;
+
+    /**
+     * Sets the type of arrow a player has selected.
+     * @param name the lowercase player name
+     * @param type the {@link ArrowType}, or <code>null</code> if flaming
+     *      arrows were disabled
+     */
+    void setArrowType(String name, ArrowType type);
+
+    /**
+     * Sets one of a player's counters.
+     * @param name the lowercase player name
+     * @param counter the counter index, less than {@link #COUNTERS}
+     * @param value the new value of the counter
+     */
+    void setCounter(String name, int counter, int value);
+
+    /**
+     * Gets the number of players the store holds state for.
+     * @return the number of players
+     */
+    int size();
+
+    /**
+     * The number of counters kept for each player.
+     */
+    int COUNTERS = 6;
+
+    /**
+     * The counter holding the number of kills by fire credited to a
+     * player.
+     * @see BurnAttribution
+     */
+    int FIRE_KILLS = 2;
+
+    /**
+     * The counter holding the number of arrows in a player's quiver.
+     * @see Quiver
+     */
+    int QUIVER_ARROWS = 0;
+
+    /**
+     * The counter holding the number of flint &amp; steel charges in a
+     * player's quiver.
+     * @see Quiver
+     */
+    int QUIVER_CHARGES = 1;
+
+    /**
+     * Returned by {@link #addCounter(String, int, int)} when the counter
+     * could not be updated, e.g. because a shared store is full.
+     */
+    int UNAVAILABLE = Integer.MIN_VALUE;
+}
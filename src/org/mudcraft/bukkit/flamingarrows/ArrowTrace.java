@@ -0,0 +1,241 @@
+/**
+ * @file ArrowTrace.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.logging.Level;
+
+/**
+ * Records what Flaming Arrows! is doing so its activity can be lined up
+ * with garbage collection logs and tick-time spikes.  Events are kept in
+ * a fixed-size ring buffer and written to <code>trace.csv</code> in the
+ * plug-in's data folder when the plug-in is disabled.  Tracing is off by
+ * default, in which case recording an event is a single field check.
+ * @author Geoffrey Davis
+ */
+public class ArrowTrace {
+    /**
+     * The kinds of event which can be recorded.
+     */
+    public enum Kind {
+        /**
+         * A player fired a flaming arrow.  The first value is the number
+         * of flint & steel charges consumed, the second is <code>1</code>
+         * if the arrow and charges came from the player's quiver, or
+         * <code>0</code> if they came from the inventory.
+         */
+        SHOT,
+
+        /**
+         * An entity was struck by a flaming arrow.  The first value is the
+         * entity ID, the second is the number of fire ticks requested.
+         */
+        IGNITION,
+
+        /**
+         * A block was set on fire.  The values are the block coordinates.
+         */
+        BLOCK_IGNITED,
+
+        /**
+         * A flaming arrow landed without finding anywhere to start a fire.
+         * The values are the block coordinates of the impact.
+         */
+        IMPACT_FAILED,
+
+        /**
+         * A mobile killed by fire dropped cooked items.  The first value is
+         * the entity ID, the second is the number of items cooked.
+         */
+        DROPS_COOKED,
+
+        /**
+         * A player or mobile set on fire by a flaming arrow died.  The
+         * first value is the victim's entity ID, the second is the
+         * shooter's entity ID.
+         */
+        FIRE_KILL
+    }
+
+    /**
+     * Constructs a new {@link ArrowTrace} instance.
+     * @param plugin the {@link FlamingArrows} object
+     */
+    public ArrowTrace(FlamingArrows plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Gets the plug-in.
+     * @return the {@link FlamingArrows} object
+     */
+    public FlamingArrows getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Gets whether events are being recorded.
+     * @return <code>true</code> if tracing is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records an event with two values.
+     * @param kind the {@link Kind} of event
+     * @param a the first value
+     * @param b the second value
+     * @see #record(Kind, int, int, int)
+     */
+    public void record(Kind kind, int a, int b) {
+        if (enabled)
+            record(kind, a, b, 0);
+    }
+
+    /**
+     * Records an event with three values.  Must be called from the main
+     * thread.
+     * @param kind the {@link Kind} of event
+     * @param a the first value
+     * @param b the second value
+     * @param c the third value
+     */
+    public void record(Kind kind, int a, int b, int c) {
+        if (enabled == false)
+            return;
+
+        // Find the slot to write, overwriting the oldest event.
+        final int slot = (int) (count++ % times.length);
+        times[slot] = System.nanoTime();
+        kinds[slot] = (byte) kind.ordinal();
+        values[slot * 3] = a;
+        values[slot * 3 + 1] = b;
+        values[slot * 3 + 2] = c;
+    }
+
+    /**
+     * Starts or stops recording according to the plug-in settings.  Any
+     * events already recorded are discarded.
+     */
+    public void start() {
+        // Stop recording while the buffers are replaced.
+        enabled = false;
+        count = 0;
+
+        if (getPlugin().getSettings().isTraceEnabled()) {
+            // Allocate the ring buffer up front.
+            final int size = getPlugin().getSettings().getTraceBufferSize();
+            times = new long[size];
+            kinds = new byte[size];
+            values = new int[size * 3];
+
+            // Remember when recording began so event times can be
+            // converted to wall-clock time.
+            startMillis = System.currentTimeMillis();
+            startNanos = System.nanoTime();
+            enabled = true;
+        } else {
+            // Release the buffers.
+            times = new long[0];
+            kinds = new byte[0];
+            values = new int[0];
+        }
+    }
+
+    /**
+     * Stops recording and writes the recorded events to
+     * <code>trace.csv</code> in the plug-in's data folder.
+     */
+    public void stop() {
+        if (enabled == false)
+            return;
+        enabled = false;
+
+        // Create a File representing the trace file.
+        final File traceFile = new File(getPlugin().getDataFolder(), "trace.csv");
+
+        PrintWriter writer = null;
+        try {
+            // Create a PrintWriter object.
+            writer = new PrintWriter(new FileWriter(traceFile));
+            writer.println("wall-millis,nanos,event,a,b,c");
+
+            // Write the events from oldest to newest.
+            final long first = Math.max(count - times.length, 0);
+            for (long i = first; i < count; ++i) {
+                final int slot = (int) (i % times.length);
+                writer.println(
+                        (startMillis + (times[slot] - startNanos) / 1000000L) + "," +
+                        times[slot] + "," +
+                        Kind.values()[kinds[slot]] + "," +
+                        values[slot * 3] + "," +
+                        values[slot * 3 + 1] + "," +
+                        values[slot * 3 + 2]);
+            }
+        } catch (IOException ex) {
+            if (FlamingArrows.logger().isLoggable(Level.WARNING)) {
+                // Write a warning message to the logger.
+                FlamingArrows.logger().warning(ex.getMessage());
+            }
+        } finally {
+            if (writer != null) {
+                // Close the print writer.
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * The total number of events recorded since tracing started.
+     */
+    private long count = 0;
+
+    /**
+     * Whether events are being recorded.
+     * @see #isEnabled()
+     */
+    private boolean enabled = false;
+
+    /**
+     * The kind of each recorded event, as a {@link Kind} ordinal.
+     */
+    private byte[] kinds = new byte[0];
+
+    /**
+     * The {@link FlamingArrows} object
+     * @see #getPlugin()
+     */
+    private final FlamingArrows plugin;
+
+    /**
+     * The wall-clock time at which recording started.
+     */
+    private long startMillis;
+
+    /**
+     * The value of {@link System#nanoTime()} when recording started.
+     */
+    private long startNanos;
+
+    /**
+     * The time of each recorded event, from {@link System#nanoTime()}.
+     */
+    private long[] times = new long[0];
+
+    /**
+     * The three values of each recorded event.
+     */
+    private int[] values = new int[0];
+}
@@ -0,0 +1,57 @@
+/**
+ * @file ArrowType.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+/**
+ * The kinds of arrow a {@link org.bukkit.entity.Player} can fire once
+ * Flaming Arrows! has been enabled.
+ * @author Geoffrey Davis
+ */
+public enum ArrowType {
+    /**
+     * An ordinary flaming arrow which ignites whatever it strikes.
+     */
+    FLAMING("FlamingArrows.ignite"),
+
+    /**
+     * An arrow which ignites the blocks and entities in a radius around
+     * the point of impact.
+     */
+    INCENDIARY("FlamingArrows.incendiary"),
+
+    /**
+     * A flaming arrow which steers itself toward the nearest living
+     * target in front of it.
+     */
+    HOMING("FlamingArrows.homing");
+
+    /**
+     * Constructs a new {@link ArrowType} instance.
+     * @param permission the permission node required to fire the arrow
+     */
+    private ArrowType(String permission) {
+        this.permission = permission;
+    }
+
+    /**
+     * Gets the permission node required to fire this type of arrow.
+     * @return the permission node
+     */
+    public String getPermission() {
+        return permission;
+    }
+
+    /**
+     * The permission node required to fire this type of arrow.
+     * @see #getPermission()
+     */
+    private final String permission;
+}
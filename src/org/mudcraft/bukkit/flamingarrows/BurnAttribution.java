@@ -0,0 +1,391 @@
+/**
+ * @file BurnAttribution.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+
+/**
+ * Remembers who set each burning player or mobile on fire, so that a
+ * death by fire can be credited to the shooter.  Entries are keyed by the
+ * victim's entity ID and expire a little after the victim should have
+ * stopped burning.  A shooter who is a {@link Player} is held alongside
+ * their entity ID, so a kill can be credited without searching for them.
+ * <p>
+ * The entries live in parallel primitive arrays using open addressing
+ * with linear probing, so recording and looking up a victim never
+ * allocates.  The table never grows; once it holds the configured number
+ * of entries, expired entries are swept out, and new victims are dropped
+ * if it's still full.  A few slots are also swept every tick, so entries
+ * for victims which despawned don't wait for the table to fill.  Removal
+ * shifts the following entries back rather than leaving tombstones, so
+ * probes stay short however many entries come and go.  A victim is
+ * looked up once with {@link #find(int)}, and everything about it is read
+ * from the slot that returns.
+ * @author Geoffrey Davis
+ */
+public class BurnAttribution implements Runnable {
+    /**
+     * Constructs a new {@link BurnAttribution} instance.
+     * @param plugin the {@link FlamingArrows} object
+     */
+    public BurnAttribution(FlamingArrows plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Finds the slot of a victim, removing the entry if it has expired.
+     * The slot stays valid until the table is next changed.
+     * @param victimId the victim's entity ID
+     * @return the slot, or <code>-1</code> if the victim isn't known
+     */
+    public int find(int victimId) {
+        if (expiries.length == 0)
+            return -1;
+
+        for (int slot = home(victimId); expiries[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] != victimId)
+                continue;
+            if (expiries[slot] <= tick) {
+                // The victim stopped burning a while ago.
+                removeSlot(slot);
+                return -1;
+            }
+            return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the type of arrow which set a victim on fire.
+     * @param slot the victim's slot, as returned by {@link #find(int)}
+     * @return the {@link ArrowType}
+     */
+    public ArrowType getArrowTypeAt(int slot) {
+        return ArrowType.values()[arrowTypes[slot]];
+    }
+
+    /**
+     * Gets the number of victims dropped because the table was full.
+     * @return the number of dropped victims
+     */
+    public int getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Gets the plug-in.
+     * @return the {@link FlamingArrows} object
+     */
+    public FlamingArrows getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Gets the entity ID of the shooter who set a victim on fire.
+     * @param slot the victim's slot, as returned by {@link #find(int)}
+     * @return the shooter's entity ID
+     */
+    public int getShooterAt(int slot) {
+        return shooters[slot];
+    }
+
+    /**
+     * Gets the {@link Player} who set a victim on fire.
+     * @param slot the victim's slot, as returned by {@link #find(int)}
+     * @return the {@link Player} object, or <code>null</code> if the
+     *      shooter wasn't a player
+     */
+    public Player getShooterPlayerAt(int slot) {
+        return players[slot];
+    }
+
+    /**
+     * Gets the number of ticks counted since the table was started.
+     * @return the current tick
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Removes the expired entries.
+     * @return the number of entries removed
+     */
+    public int prune() {
+        if (expiries.length == 0)
+            return 0;
+
+        // Start just after an empty slot, so the sweep begins each probe
+        // sequence at its start.  Entries only ever shift back within
+        // their own sequence, so none can wrap into a slot already swept.
+        // The table is at most half full, so there's always an empty slot.
+        int start = 0;
+        while (expiries[start] != 0)
+            ++start;
+
+        int removed = 0;
+        for (int i = 1; i <= expiries.length; ++i) {
+            final int slot = (start + i) & mask;
+
+            // Removing an entry can shift a later one into this slot, so
+            // keep checking the slot until it's empty or current.
+            while (expiries[slot] != 0 && expiries[slot] <= tick) {
+                removeSlot(slot);
+                ++removed;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Records the shooter who set a victim on fire, replacing any earlier
+     * shooter.
+     * @param victimId the victim's entity ID
+     * @param shooter the {@link LivingEntity} who fired the arrow
+     * @param type the {@link ArrowType} of the arrow
+     * @param fireTicks the number of ticks the victim will burn for
+     */
+    public void record(int victimId, LivingEntity shooter, ArrowType type, int fireTicks) {
+        if (expiries.length == 0)
+            return;
+
+        // Find the victim's slot, or the empty slot which ends the probe.
+        int slot = home(victimId);
+        while (expiries[slot] != 0 && keys[slot] != victimId) {
+            slot = (slot + 1) & mask;
+        }
+
+        if (expiries[slot] == 0) {
+            if (size >= capacity) {
+                // Make room by sweeping out the expired entries.
+                prune();
+                if (size >= capacity) {
+                    ++dropped;
+                    return;
+                }
+
+                // The sweep may have moved the empty slot.
+                slot = home(victimId);
+                while (expiries[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+            }
+            keys[slot] = victimId;
+            ++size;
+        }
+
+        shooters[slot] = shooter.getEntityId();
+        players[slot] = shooter instanceof Player ? (Player) shooter : null;
+        arrowTypes[slot] = (byte) type.ordinal();
+        expiries[slot] = tick + Math.max(fireTicks, 0) + GRACE_TICKS;
+    }
+
+    /**
+     * Forgets a victim, normally once it has died.
+     * @param slot the victim's slot, as returned by {@link #find(int)}
+     */
+    public void removeAt(int slot) {
+        removeSlot(slot);
+    }
+
+    /**
+     * Counts one tick and sweeps the next few slots.  Runs on the main
+     * thread every tick.
+     */
+    public void run() {
+        ++tick;
+
+        for (int i = 0; i < SWEEP_SLOTS && size > 0; ++i) {
+            // Removing an entry can shift a later one into this slot, so
+            // keep checking the slot until it's empty or current.
+            while (expiries[sweepCursor] != 0 && expiries[sweepCursor] <= tick)
+                removeSlot(sweepCursor);
+            sweepCursor = (sweepCursor + 1) & mask;
+        }
+    }
+
+    /**
+     * Gets the number of victims in the table, including any which have
+     * expired but haven't been swept out yet.
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Allocates the table according to the plug-in settings and starts
+     * counting ticks.
+     */
+    public void start() {
+        stop();
+
+        // Keep the table at most half full so probes stay short.
+        capacity = getPlugin().getSettings().getAttributionCapacity();
+        int length = 1;
+        while (length < capacity * 2)
+            length <<= 1;
+        keys = new int[length];
+        shooters = new int[length];
+        players = new Player[length];
+        arrowTypes = new byte[length];
+        expiries = new int[length];
+        mask = length - 1;
+        sweepCursor = 0;
+
+        // Count the ticks which drive expiry.
+        taskId = getPlugin().getServer().getScheduler()
+            .scheduleSyncRepeatingTask(getPlugin(), this, 1, 1);
+    }
+
+    /**
+     * Stops counting ticks and forgets every victim.
+     */
+    public void stop() {
+        if (taskId != -1) {
+            // Stop the repeating task.
+            getPlugin().getServer().getScheduler().cancelTask(taskId);
+            taskId = -1;
+        }
+
+        keys = new int[0];
+        shooters = new int[0];
+        players = new Player[0];
+        arrowTypes = new byte[0];
+        expiries = new int[0];
+        mask = 0;
+        size = 0;
+        sweepCursor = 0;
+        tick = 0;
+    }
+
+    /**
+     * Computes the slot at which the probe for a victim starts.
+     * @param victimId the victim's entity ID
+     * @return the home slot
+     */
+    private int home(int victimId) {
+        // Spread sequential entity IDs across the table.
+        final int hash = victimId * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Empties a slot, shifting back any later entries of the same probe
+     * sequence so that no probe is cut short.
+     * @param slot the slot to empty
+     */
+    private void removeSlot(int slot) {
+        int hole = slot;
+        for (int next = (hole + 1) & mask; expiries[next] != 0; next = (next + 1) & mask) {
+            // An entry may only move back if its home slot isn't between
+            // the hole and where it sits now.
+            final int home = home(keys[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                shooters[hole] = shooters[next];
+                players[hole] = players[next];
+                arrowTypes[hole] = arrowTypes[next];
+                expiries[hole] = expiries[next];
+                hole = next;
+            }
+        }
+        expiries[hole] = 0;
+        players[hole] = null;
+        --size;
+    }
+
+    /**
+     * The number of ticks an entry outlives the fire, to cover a victim
+     * which dies just after it stops burning.
+     */
+    private static final int GRACE_TICKS = 20;
+
+    /**
+     * The number of slots swept each tick.
+     */
+    private static final int SWEEP_SLOTS = 16;
+
+    /**
+     * The {@link ArrowType} ordinal of each entry.
+     */
+    private byte[] arrowTypes = new byte[0];
+
+    /**
+     * The largest number of entries the table holds.
+     */
+    private int capacity;
+
+    /**
+     * The number of victims dropped because the table was full.
+     * @see #getDropped()
+     */
+    private int dropped = 0;
+
+    /**
+     * The tick at which each entry expires, or <code>0</code> for an
+     * empty slot.
+     */
+    private int[] expiries = new int[0];
+
+    /**
+     * The victim entity ID of each entry.
+     */
+    private int[] keys = new int[0];
+
+    /**
+     * The table length less one, for wrapping slot numbers.
+     */
+    private int mask = 0;
+
+    /**
+     * The shooter of each entry if they're a {@link Player}, or
+     * <code>null</code>.  Cleared when the entry is removed so the table
+     * never holds on to a player who has left.
+     * @see #getShooterPlayer(int)
+     */
+    private Player[] players = new Player[0];
+
+    /**
+     * The {@link FlamingArrows} object
+     * @see #getPlugin()
+     */
+    private final FlamingArrows plugin;
+
+    /**
+     * The shooter entity ID of each entry.
+     */
+    private int[] shooters = new int[0];
+
+    /**
+     * The number of entries in the table.
+     * @see #size()
+     */
+    private int size = 0;
+
+    /**
+     * The next slot to be swept by {@link #run()}.
+     */
+    private int sweepCursor = 0;
+
+    /**
+     * The ID of the repeating task, or <code>-1</code> if it isn't
+     * running.
+     */
+    private int taskId = -1;
+
+    /**
+     * The number of ticks counted since the table was started.
+     * @see #getTick()
+     */
+    private int tick = 0;
+}
@@ -0,0 +1,135 @@
+/**
+ * @file CreatureIndex.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bukkit.entity.Chicken;
+import org.bukkit.entity.Cow;
+import org.bukkit.entity.CreatureType;
+import org.bukkit.entity.Creeper;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Ghast;
+import org.bukkit.entity.Giant;
+import org.bukkit.entity.Monster;
+import org.bukkit.entity.Pig;
+import org.bukkit.entity.PigZombie;
+import org.bukkit.entity.Sheep;
+import org.bukkit.entity.Skeleton;
+import org.bukkit.entity.Slime;
+import org.bukkit.entity.Spider;
+import org.bukkit.entity.Squid;
+import org.bukkit.entity.Wolf;
+import org.bukkit.entity.Zombie;
+
+/**
+ * Maps entities to the ordinal of their {@link CreatureType}, so settings
+ * can be kept in arrays indexed by creature type.  Bukkit doesn't tell us
+ * an entity's creature type, so the first entity of each class is matched
+ * against the creature interfaces and the answer is remembered for the
+ * class.
+ * @author Geoffrey Davis
+ */
+public final class CreatureIndex {
+    /**
+     * This class only has static members.
+     */
+    private CreatureIndex() {
+    }
+
+    /**
+     * Gets the index of an entity's creature type.  Must be called from
+     * the main thread.
+     * @param entity the {@link Entity} object
+     * @return the {@link CreatureType} ordinal, or {@link #UNKNOWN}
+     */
+    public static int indexOf(Entity entity) {
+        // Check whether we've seen this class before.
+        final Integer cached = CACHE.get(entity.getClass());
+        if (cached != null)
+            return cached;
+
+        // The index of the creature type, if we can find one.
+        int index = UNKNOWN;
+
+        // Try the creature interfaces, most specific first.
+        for (int i = 0; i < CLASSES.length; ++i) {
+            if (CLASSES[i].isInstance(entity)) {
+                index = TYPES[i].ordinal();
+                break;
+            }
+        }
+
+        // Remember the answer for the next entity of this class.
+        CACHE.put(entity.getClass(), index);
+        return index;
+    }
+
+    /**
+     * Searches for a {@link CreatureType} by name.
+     * @param name the name of the creature type, e.g. <code>pig-zombie</code>
+     * @return the {@link CreatureType}, or <code>null</code>
+     */
+    public static CreatureType parseCreatureType(String name) {
+        // Normalize the name the same way as the wand material.
+        name = name.trim().toLowerCase().replace("-", "_").replace(" ", "_");
+
+        // Iterate over the available creature types.
+        for (CreatureType type: CreatureType.values()) {
+            // Compare the raw name of the creature type.
+            if (type.name().toLowerCase().equals(name))
+                return type;
+            // Compare the name without the underscores.
+            if (type.name().toLowerCase().replace("_", "").equals(name))
+                return type;
+        }
+        return null;
+    }
+
+    /**
+     * The number of slots needed by an array indexed by creature type,
+     * including the {@link #UNKNOWN} slot.
+     */
+    public static final int SIZE = CreatureType.values().length + 1;
+
+    /**
+     * The index used for entities without a known creature type.
+     */
+    public static final int UNKNOWN = CreatureType.values().length;
+
+    /**
+     * Maps entity classes to the index of their creature type.
+     */
+    private static final Map<Class<?>, Integer> CACHE =
+        new HashMap<Class<?>, Integer>();
+
+    /**
+     * The creature interfaces, most specific first.
+     */
+    private static final Class<?>[] CLASSES = {
+        Chicken.class, Cow.class, Pig.class, Sheep.class, Wolf.class,
+        PigZombie.class, Zombie.class, Creeper.class, Giant.class,
+        Skeleton.class, Spider.class, Ghast.class, Slime.class, Squid.class,
+        Monster.class
+    };
+
+    /**
+     * The creature types matching {@link #CLASSES}.
+     */
+    private static final CreatureType[] TYPES = {
+        CreatureType.CHICKEN, CreatureType.COW, CreatureType.PIG,
+        CreatureType.SHEEP, CreatureType.WOLF, CreatureType.PIG_ZOMBIE,
+        CreatureType.ZOMBIE, CreatureType.CREEPER, CreatureType.GIANT,
+        CreatureType.SKELETON, CreatureType.SPIDER, CreatureType.GHAST,
+        CreatureType.SLIME, CreatureType.SQUID, CreatureType.MONSTER
+    };
+}
@@ -0,0 +1,224 @@
+/**
+ * @file EntityGrid.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.LivingEntity;
+
+/**
+ * A uniform grid of square columns over the {@link LivingEntity}s of a
+ * {@link World}, so that the entities near a point can be found by
+ * looking in a handful of cells rather than at every entity.  The grid
+ * is brought up to date incrementally: an entity is only moved between
+ * cells when it crosses a cell boundary, and entities which have left the
+ * world are dropped.
+ * @author Geoffrey Davis
+ */
+public class EntityGrid {
+    /**
+     * Constructs a new {@link EntityGrid} instance.
+     * @param cellSize the width of a cell, in blocks
+     */
+    public EntityGrid(int cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Forgets every entity in the grid.
+     */
+    public void clear() {
+        cells.clear();
+        entries.clear();
+    }
+
+    /**
+     * Collects the entities in the cells which overlap a square around a
+     * point.  Some of the entities may lie outside of the square.
+     * @param x the X coordinate of the point
+     * @param z the Z coordinate of the point
+     * @param radius half the width of the square
+     * @param out the {@link List} to add the entities to
+     */
+    public void query(double x, double z, double radius, List<LivingEntity> out) {
+        final int minX = cellOf(x - radius);
+        final int maxX = cellOf(x + radius);
+        final int minZ = cellOf(z - radius);
+        final int maxZ = cellOf(z + radius);
+
+        for (int cx = minX; cx <= maxX; ++cx) {
+            for (int cz = minZ; cz <= maxZ; ++cz) {
+                final ArrayList<Entry> cell = cells.get(cellKey(cx, cz));
+                if (cell == null)
+                    continue;
+                for (int i = 0; i < cell.size(); ++i) {
+                    out.add(cell.get(i).entity);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of entities in the grid.
+     * @return the number of entities
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Brings the grid up to date with the entities of a {@link World}.
+     * Must be called from the main thread.
+     * @param world the {@link World} object
+     */
+    public void update(World world) {
+        ++stamp;
+
+        for (LivingEntity entity: world.getLivingEntities()) {
+            // Work out which cell the entity is in now.
+            final Location location = entity.getLocation();
+            final long key = cellKey(cellOf(location.getX()), cellOf(location.getZ()));
+
+            Entry entry = entries.get(entity.getEntityId());
+            if (entry == null) {
+                // A new entity.
+                entry = new Entry(entity);
+                entries.put(entity.getEntityId(), entry);
+                insert(entry, key);
+            } else if (entry.cell != key) {
+                // The entity crossed into another cell.
+                unlink(entry);
+                insert(entry, key);
+            }
+            entry.stamp = stamp;
+        }
+
+        // Drop the entities which weren't seen this time.
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            final Entry entry = it.next();
+            if (entry.stamp != stamp) {
+                unlink(entry);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Computes the cell coordinate of a block coordinate.
+     * @param coordinate the X or Z coordinate
+     * @return the cell coordinate
+     */
+    private int cellOf(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    /**
+     * Computes the key of a cell.
+     * @param cx the cell X coordinate
+     * @param cz the cell Z coordinate
+     * @return the cell key
+     */
+    private static long cellKey(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Adds an entry to a cell.
+     * @param entry the {@link Entry} object
+     * @param key the cell key
+     */
+    private void insert(Entry entry, long key) {
+        ArrayList<Entry> cell = cells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<Entry>();
+            cells.put(key, cell);
+        }
+        entry.cell = key;
+        entry.index = cell.size();
+        cell.add(entry);
+    }
+
+    /**
+     * Removes an entry from its cell by swapping the cell's last entry
+     * into its place.
+     * @param entry the {@link Entry} object
+     */
+    private void unlink(Entry entry) {
+        final ArrayList<Entry> cell = cells.get(entry.cell);
+        final Entry last = cell.remove(cell.size() - 1);
+        if (last != entry) {
+            cell.set(entry.index, last);
+            last.index = entry.index;
+        }
+        if (cell.isEmpty())
+            cells.remove(entry.cell);
+    }
+
+    /**
+     * An entity and its place in the grid.
+     */
+    private static class Entry {
+        /**
+         * Constructs a new {@link Entry} instance.
+         * @param entity the {@link LivingEntity} object
+         */
+        Entry(LivingEntity entity) {
+            this.entity = entity;
+        }
+
+        /**
+         * The key of the cell holding the entity.
+         */
+        long cell;
+
+        /**
+         * The entity.
+         */
+        final LivingEntity entity;
+
+        /**
+         * The position of the entry in its cell.
+         */
+        int index;
+
+        /**
+         * The update in which the entity was last seen.
+         */
+        int stamp;
+    }
+
+    /**
+     * The entries in each cell, by cell key.
+     */
+    private final Map<Long, ArrayList<Entry>> cells =
+        new HashMap<Long, ArrayList<Entry>>();
+
+    /**
+     * The width of a cell, in blocks.
+     */
+    private final int cellSize;
+
+    /**
+     * The entries of every entity in the grid, by entity ID.
+     */
+    private final Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+
+    /**
+     * The number of the current update.
+     */
+    private int stamp = 0;
+}
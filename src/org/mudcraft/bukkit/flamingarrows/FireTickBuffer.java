@@ -0,0 +1,185 @@
+/**
+ * @file FireTickBuffer.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bukkit.entity.LivingEntity;
+
+/**
+ * Coalesces the fire ticks applied to entities struck by flaming arrows.
+ * A volley can strike the same mobile many times within a single tick, so
+ * rather than reading and writing the target's fire ticks for every hit
+ * we remember the largest number of fire ticks requested for each entity
+ * and apply it once, on the next run of the scheduler.
+ * @author Geoffrey Davis
+ */
+public class FireTickBuffer implements Runnable {
+    /**
+     * Constructs a new {@link FireTickBuffer} instance.
+     * @param plugin the {@link FlamingArrows} object
+     */
+    public FireTickBuffer(FlamingArrows plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Applies all of the pending fire ticks and empties the buffer.
+     */
+    public void flush() {
+        // Iterate over the entities struck since the last flush.
+        for (PendingIgnition ignition: pending.values()) {
+            // Skip entities which died or despawned in the meantime.
+            if (ignition.target.isDead())
+                continue;
+
+            // Don't add more fire ticks then they already have.
+            if (ignition.target.getFireTicks() < ignition.fireTicks) {
+                // Set the target on fire for some number of ticks.
+                ignition.target.setFireTicks(ignition.fireTicks);
+
+                // Count the number of fire tick updates applied.
+                ++ignitions;
+            }
+        }
+        // Forget the entities we've handled.
+        pending.clear();
+
+        // Allow the next hit to schedule another flush.
+        flushScheduled = false;
+    }
+
+    /**
+     * Gets the number of flaming arrow hits recorded by the buffer.
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of times the buffer actually updated an entity's
+     * fire ticks.
+     * @return the number of ignitions
+     */
+    public long getIgnitions() {
+        return ignitions;
+    }
+
+    /**
+     * Gets the number of entities waiting for the next flush.
+     * @return the number of pending entities
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Gets the plug-in.
+     * @return the {@link FlamingArrows} object
+     */
+    public FlamingArrows getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Records that a {@link LivingEntity} should burn for at least some
+     * number of ticks.  The entity's fire ticks are not touched until the
+     * buffer is flushed.
+     * @param target the {@link LivingEntity} object
+     * @param fireTicks the desired number of fire ticks
+     */
+    public void ignite(LivingEntity target, int fireTicks) {
+        // Count the hit regardless of whether it changes anything.
+        ++hits;
+
+        // Look for an earlier hit on the same entity during this tick.
+        final PendingIgnition existing = pending.get(target.getEntityId());
+
+        if (existing == null) {
+            // Remember the entity and the number of fire ticks.
+            pending.put(target.getEntityId(),
+                        new PendingIgnition(target, fireTicks));
+        } else if (existing.fireTicks < fireTicks) {
+            // Keep the largest number of fire ticks requested.
+            existing.fireTicks = fireTicks;
+        }
+
+        if (flushScheduled == false) {
+            // Flush the buffer once the current tick has been processed.
+            getPlugin().getServer().getScheduler().scheduleSyncDelayedTask(
+                    getPlugin(), this);
+            flushScheduled = true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void run() {
+        flush();
+    }
+
+    /**
+     * A {@link LivingEntity} waiting to be set on fire.
+     */
+    private static class PendingIgnition {
+        /**
+         * Constructs a new {@link PendingIgnition} instance.
+         * @param target the {@link LivingEntity} object
+         * @param fireTicks the desired number of fire ticks
+         */
+        PendingIgnition(LivingEntity target, int fireTicks) {
+            this.target = target;
+            this.fireTicks = fireTicks;
+        }
+
+        /**
+         * The largest number of fire ticks requested so far.
+         */
+        int fireTicks;
+
+        /**
+         * The entity to be set on fire.
+         */
+        final LivingEntity target;
+    }
+
+    /**
+     * Whether a flush has been scheduled for the current tick.
+     */
+    private boolean flushScheduled = false;
+
+    /**
+     * The number of flaming arrow hits recorded.
+     * @see #getHits()
+     */
+    private long hits = 0;
+
+    /**
+     * The number of fire tick updates applied.
+     * @see #getIgnitions()
+     */
+    private long ignitions = 0;
+
+    /**
+     * Maps entity IDs to the fire ticks waiting to be applied.
+     */
+    private final Map<Integer, PendingIgnition> pending =
+        new HashMap<Integer, PendingIgnition>();
+
+    /**
+     * The {@link FlamingArrows} object
+     * @see #getPlugin()
+     */
+    private final FlamingArrows plugin;
+}
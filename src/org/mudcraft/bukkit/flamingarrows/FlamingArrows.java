@@ -16,9 +16,11 @@ import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
 import org.bukkit.event.Event;
 import org.bukkit.event.Event.Priority;
-import org.bukkit.event.entity.EntityListener;
 import org.bukkit.event.player.PlayerListener;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.PluginDescriptionFile;
@@ -54,15 +56,62 @@ public class FlamingArrows extends JavaPlugin {
                 // Write the default configuration file.
                 fileWriter.write(
                         "flaming-arrows:\n" +
+                        "  attribution:\n" +
+                        "    capacity: 4096\n" +
                         "  charges-required:\n" +
                         "    flint-and-steel: 5\n" +
+                        "  effects:\n" +
+                        "    flaming:\n" +
+                        "      - ignite\n" +
+                        "      - place-fire\n" +
+                        "      - cook-drops\n" +
+                        "    incendiary:\n" +
+                        "      - ignite\n" +
+                        "      - incendiary\n" +
+                        "      - cook-drops\n" +
+                        "    homing:\n" +
+                        "      - ignite\n" +
+                        "      - place-fire\n" +
+                        "      - cook-drops\n" +
                         "  fire-ticks:\n" +
                         "    non-player: 600\n" +
                         "    player: 0\n" +
+                        "  homing:\n" +
+                        "    cone-angle: 30\n" +
+                        "    range: 16\n" +
+                        "    turn-rate: 25\n" +
+                        "  ignition:\n" +
+                        "    search-radius: 2\n" +
+                        "    worker-threads: 2\n" +
+                        "  incendiary:\n" +
+                        "    blocks-per-tick: 64\n" +
+                        "    radius: 3\n" +
                         "  messages:\n" +
                         "    disabled: '*Flaming Arrows* You are now firing normal arrows.'\n" +
                         "    enabled: '*Flaming Arrows* You are now firing flaming arrows.'\n" +
+                        "    fire-kill: '*Flaming Arrows* Your flaming arrow killed %victim%. (%kills% fire kills)'\n" +
+                        "    homing: '*Flaming Arrows* You are now firing homing arrows.'\n" +
+                        "    incendiary: '*Flaming Arrows* You are now firing incendiary arrows.'\n" +
+                        "  persistence:\n" +
+                        "    enabled: true\n" +
+                        "  quiver:\n" +
+                        "    enabled: false\n" +
+                        "    max-arrows: 256\n" +
+                        "    max-charges: 1280\n" +
+                        "  reaper:\n" +
+                        "    batch-size: 32\n" +
+                        "    max-age: 30\n" +
+                        "    max-per-chunk: 32\n" +
+                        "  state:\n" +
+                        "    backend: memory\n" +
+                        "    file: ''\n" +
+                        "    slots: 4096\n" +
+                        "  trace:\n" +
+                        "    buffer-size: 65536\n" +
+                        "    enabled: false\n" +
                         "  wand: bow\n" +
+                        "  watchdog:\n" +
+                        "    interval: 0\n" +
                         "  whitelist:\n" +
                         "    - '*'\n");
             } catch (Exception ex) {
@@ -96,6 +145,102 @@ public class FlamingArrows extends JavaPlugin {
         return arrowManager;
     }
     
+    /**
+     * Gets the plug-in's reaper of landed arrows.
+     * @return an {@link ArrowReaper} object
+     */
+    public ArrowReaper getArrowReaper() {
+        if (arrowReaper == null) {
+            // Create a new ArrowReaper instance.
+            arrowReaper = new ArrowReaper(this);
+        }
+        return arrowReaper;
+    }
+    
+    /**
+     * Gets the plug-in's record of who set each victim on fire.
+     * @return a {@link BurnAttribution} object
+     */
+    public BurnAttribution getBurnAttribution() {
+        if (burnAttribution == null) {
+            // Create a new BurnAttribution instance.
+            burnAttribution = new BurnAttribution(this);
+        }
+        return burnAttribution;
+    }
+    
+    /**
+     * Gets the plug-in's arrow effect pipeline.
+     * @return an {@link ArrowEffectPipeline} object
+     */
+    public ArrowEffectPipeline getEffectPipeline() {
+        if (effectPipeline == null) {
+            // Create a new ArrowEffectPipeline instance.
+            effectPipeline = new ArrowEffectPipeline(this);
+        }
+        return effectPipeline;
+    }
+    
+    /**
+     * Gets the plug-in's fire tick buffer.
+     * @return a {@link FireTickBuffer} object
+     */
+    public FireTickBuffer getFireTickBuffer() {
+        if (fireTickBuffer == null) {
+            // Create a new FireTickBuffer instance.
+            fireTickBuffer = new FireTickBuffer(this);
+        }
+        return fireTickBuffer;
+    }
+    
+    /**
+     * Gets the plug-in's flammability analyzer.
+     * @return a {@link FlammabilityAnalyzer} object
+     */
+    public FlammabilityAnalyzer getFlammabilityAnalyzer() {
+        if (flammabilityAnalyzer == null) {
+            // Create a new FlammabilityAnalyzer instance.
+            flammabilityAnalyzer = new FlammabilityAnalyzer(this);
+        }
+        return flammabilityAnalyzer;
+    }
+    
+    /**
+     * Gets the plug-in's homing arrow task.
+     * @return a {@link HomingTask} object
+     */
+    public HomingTask getHomingTask() {
+        if (homingTask == null) {
+            // Create a new HomingTask instance.
+            homingTask = new HomingTask(this);
+        }
+        return homingTask;
+    }
+    
+    /**
+     * Gets the plug-in's incendiary arrow task.
+     * @return an {@link IncendiaryTask} object
+     */
+    public IncendiaryTask getIncendiaryTask() {
+        if (incendiaryTask == null) {
+            // Create a new IncendiaryTask instance.
+            incendiaryTask = new IncendiaryTask(this);
+        }
+        return incendiaryTask;
+    }
+    
+    /**
+     * Gets the plug-in's virtual quiver.
+     * @return a {@link Quiver} object
+     */
+    public Quiver getQuiver() {
+        if (quiver == null) {
+            // Create a new Quiver instance.
+            quiver = new Quiver(this);
+        }
+        return quiver;
+    }
+    
     /**
      * Gets the plug-in's settings.
      * @return an {@link ArrowSettings} object
@@ -104,6 +249,144 @@ public class FlamingArrows extends JavaPlugin {
         return settings;
     }
     
+    /**
+     * Gets the plug-in's activity trace.
+     * @return an {@link ArrowTrace} object
+     */
+    public ArrowTrace getTrace() {
+        if (trace == null) {
+            // Create a new ArrowTrace instance.
+            trace = new ArrowTrace(this);
+        }
+        return trace;
+    }
+    
+    /**
+     * Gets the plug-in's leak watchdog.
+     * @return a {@link LeakWatchdog} object
+     */
+    public LeakWatchdog getWatchdog() {
+        if (watchdog == null) {
+            // Create a new LeakWatchdog instance.
+            watchdog = new LeakWatchdog(this);
+            
+            // Watch the collections which grow with player activity.
+            watchdog.addProbe(new LeakWatchdog.Probe() {
+                public String getName() {
+                    return "enabled players";
+                }
+                public int prune() {
+                    return getArrowManager().prunePlayers();
+                }
+                public int size() {
+                    return getArrowManager().getPlayers().size();
+                }
+            });
+            watchdog.addProbe(new LeakWatchdog.Probe() {
+                public String getName() {
+                    return "saved arrow types";
+                }
+                public int prune() {
+                    return 0;
+                }
+                public int size() {
+                    return getArrowManager().getSavedTypeCount();
+                }
+            });
+            watchdog.addProbe(new LeakWatchdog.Probe() {
+                public String getName() {
+                    return "tracked arrows";
+                }
+                public int prune() {
+                    return getArrowManager().pruneArrows();
+                }
+                public int size() {
+                    return getArrowManager().getTrackedArrowCount();
+                }
+            });
+            watchdog.addProbe(new LeakWatchdog.Probe() {
+                public String getName() {
+                    return "bacon";
+                }
+                public int prune() {
+                    return entityListener.pruneBacon();
+                }
+                public int size() {
+                    return entityListener.getBaconCount();
+                }
+            });
+            watchdog.addProbe(new LeakWatchdog.Probe() {
+                public String getName() {
+                    return "pending fire ticks";
+                }
+                public int prune() {
+                    return 0;
+                }
+                public int size() {
+                    return getFireTickBuffer().getPendingCount();
+                }
+            });
+            watchdog.addProbe(new LeakWatchdog.Probe() {
+                public String getName() {
+                    return "incendiary blasts";
+                }
+                public int prune() {
+                    return 0;
+                }
+                public int size() {
+                    return getIncendiaryTask().getPendingCount();
+                }
+            });
+            watchdog.addProbe(new LeakWatchdog.Probe() {
+                public String getName() {
+                    return "landed arrows";
+                }
+                public int prune() {
+                    return getArrowReaper().prune();
+                }
+                public int size() {
+                    return getArrowReaper().getPendingCount();
+                }
+            });
+            watchdog.addProbe(new LeakWatchdog.Probe() {
+                public String getName() {
+                    return "homing arrows";
+                }
+                public int prune() {
+                    return 0;
+                }
+                public int size() {
+                    return getHomingTask().getPendingCount();
+                }
+            });
+            watchdog.addProbe(new LeakWatchdog.Probe() {
+                public String getName() {
+                    return "burn attributions";
+                }
+                public int prune() {
+                    return getBurnAttribution().prune();
+                }
+                public int size() {
+                    return getBurnAttribution().size();
+                }
+            });
+        }
+        return watchdog;
+    }
+    
+    /**
+     * Gets whether a {@link Player} holds a permission.  Without the
+     * Permissions plug-in only operators hold any.
+     * @param player the {@link Player} object
+     * @param permission the permission node
+     * @return <code>true</code> if the player holds the permission
+     */
+    public static boolean hasPermission(Player player, String permission) {
+        if (permissionHandler == null)
+            return player.isOp();
+        return permissionHandler.has(player, permission);
+    }
+    
     /**
      * Gets a suitable logger for this class.
      * @return a <code>Logger</code> object
@@ -112,12 +395,50 @@ public class FlamingArrows extends JavaPlugin {
         return Logger.getLogger("Minecraft");
     }
     
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command command,
+                             String label, String[] args) {
+        if (command.getName().equalsIgnoreCase("quiver"))
+            return getQuiver().onCommand(sender, args);
+        return false;
+    }
+    
     /**
      * {@inheritDoc}
      */
     public void onDisable() {
-        // Clear any configured players.
-        getArrowManager().getPlayers().clear();
+        // Report the size of the plug-in's collections.
+        getWatchdog().report();
+        
+        // Clear any configured players and save their arrow types.
+        getArrowManager().unload();
+        
+        // Stop searching for places to start fires.
+        getFlammabilityAnalyzer().shutdown();
+        
+        // Discard any incendiary blasts still burning.
+        getIncendiaryTask().cancel();
+        
+        // Forget who set the burning victims on fire.
+        getBurnAttribution().stop();
+        
+        // Stop steering homing arrows.
+        getHomingTask().cancel();
+        
+        // Stop reaping landed arrows.
+        getArrowReaper().cancel();
+        
+        // Apply any fire ticks still waiting in the buffer.
+        getFireTickBuffer().flush();
+        
+        // Write out the activity trace.
+        getTrace().stop();
+        
+        // Report the time spent in each arrow effect.
+        getEffectPipeline().logTimings();
         
         // Obtain a plug-in descriptor for this plug-in.
         final PluginDescriptionFile pdf = getDescription();
@@ -158,6 +479,7 @@ public class FlamingArrows extends JavaPlugin {
         pm.registerEvent(Event.Type.ENTITY_DAMAGE, entityListener, Priority.Monitor, this);
         pm.registerEvent(Event.Type.ENTITY_DEATH, entityListener, Priority.Normal, this);
         pm.registerEvent(Event.Type.PLAYER_INTERACT, playerListener, Priority.Normal, this);
+        pm.registerEvent(Event.Type.PLAYER_JOIN, playerListener, Priority.Normal, this);
         pm.registerEvent(Event.Type.PLAYER_QUIT, playerListener, Priority.Normal, this);
         pm.registerEvent(Event.Type.PROJECTILE_HIT, entityListener, Priority.Normal, this);
         
@@ -175,6 +497,21 @@ public class FlamingArrows extends JavaPlugin {
         
         // Reload the configuration settings.
         getSettings().readConfiguration();
+        
+        // Compile the configured arrow effects.
+        getEffectPipeline().compile();
+        
+        // Start recording activity if tracing is enabled.
+        getTrace().start();
+        
+        // Restore the saved arrow types.
+        getArrowManager().load();
+        
+        // Start remembering who sets victims on fire.
+        getBurnAttribution().start();
+        
+        // Start watching the plug-in's collections for leaks.
+        getWatchdog().start();
     }
     
     /**
@@ -183,16 +520,76 @@ public class FlamingArrows extends JavaPlugin {
      */
     private ArrowManager arrowManager;
     
+    /**
+     * The {@link ArrowReaper} instance.
+     * @see #getArrowReaper()
+     */
+    private ArrowReaper arrowReaper;
+    
+    /**
+     * The {@link BurnAttribution} instance.
+     * @see #getBurnAttribution()
+     */
+    private BurnAttribution burnAttribution;
+    
+    /**
+     * The {@link ArrowEffectPipeline} instance.
+     * @see #getEffectPipeline()
+     */
+    private ArrowEffectPipeline effectPipeline;
+    
+    /**
+     * The {@link FireTickBuffer} instance.
+     * @see #getFireTickBuffer()
+     */
+    private FireTickBuffer fireTickBuffer;
+    
+    /**
+     * The {@link FlammabilityAnalyzer} instance.
+     * @see #getFlammabilityAnalyzer()
+     */
+    private FlammabilityAnalyzer flammabilityAnalyzer;
+    
+    /**
+     * The {@link HomingTask} instance.
+     * @see #getHomingTask()
+     */
+    private HomingTask homingTask;
+    
+    /**
+     * The {@link IncendiaryTask} instance.
+     * @see #getIncendiaryTask()
+     */
+    private IncendiaryTask incendiaryTask;
+    
+    /**
+     * The {@link Quiver} instance.
+     * @see #getQuiver()
+     */
+    private Quiver quiver;
+    
     /**
      * Handles entity events for the FlamingArrows plug-in.
      */
-    private final EntityListener entityListener = new FlamingArrowsEntityListener(this);
+    private final FlamingArrowsEntityListener entityListener = new FlamingArrowsEntityListener(this);
     
     /**
      * Handles player events for the FlamingArrows plug-in.
      */
     private final PlayerListener playerListener = new FlamingArrowsPlayerListener(this);
     
+    /**
+     * The {@link ArrowTrace} instance.
+     * @see #getTrace()
+     */
+    private ArrowTrace trace;
+    
+    /**
+     * The {@link LeakWatchdog} instance.
+     * @see #getWatchdog()
+     */
+    private LeakWatchdog watchdog;
+    
     /**
      * The plug-in settings.
      * @see #getSettings()
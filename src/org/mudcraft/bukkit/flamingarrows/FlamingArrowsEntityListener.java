@@ -10,22 +10,22 @@
  */
 package org.mudcraft.bukkit.flamingarrows;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
-import org.bukkit.Material;
-import org.bukkit.block.Block;
 import org.bukkit.entity.Arrow;
+import org.bukkit.entity.CreatureType;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Pig;
 import org.bukkit.entity.Player;
+import org.bukkit.entity.Projectile;
 import org.bukkit.event.entity.EntityDamageByProjectileEvent;
 import org.bukkit.event.entity.EntityDamageEvent;
 import org.bukkit.event.entity.EntityDeathEvent;
 import org.bukkit.event.entity.EntityListener;
 import org.bukkit.event.entity.EntityDamageEvent.DamageCause;
 import org.bukkit.event.entity.ProjectileHitEvent;
-import org.bukkit.inventory.ItemStack;
 
 /**
  * Handles entity events for the Flaming Arrows! plug-in.
@@ -40,6 +40,29 @@ public class FlamingArrowsEntityListener extends EntityListener {
         this.plugin = plugin;
     }
     
+    /**
+     * Adds a burning pig to the bacon list.  Nothing else notices pigs
+     * which despawn while burning, so the list is pruned each time it
+     * doubles in size.
+     * @param pig the {@link Pig} object
+     */
+    private void addBacon(Pig pig) {
+        if (bacon.size() >= baconPruneSize) {
+            // Forget the pigs which are gone before adding more.
+            pruneBacon();
+            baconPruneSize = Math.max(bacon.size() * 2, MIN_PRUNE_SIZE);
+        }
+        bacon.put(pig.getEntityId(), pig);
+    }
+    
+    /**
+     * Gets the number of pigs in the bacon list.
+     * @return the number of pigs
+     */
+    public int getBaconCount() {
+        return bacon.size();
+    }
+    
     /**
      * Gets the plug-in.
      * @return the {@link FlamingArrows} object
@@ -48,6 +71,22 @@ public class FlamingArrowsEntityListener extends EntityListener {
         return plugin;
     }
     
+    /**
+     * Removes the pigs which despawned or were unloaded from the bacon
+     * list.
+     * @return the number of pigs removed
+     */
+    public int pruneBacon() {
+        int removed = 0;
+        for (Iterator<Pig> it = bacon.values().iterator(); it.hasNext();) {
+            if (it.next().isDead()) {
+                it.remove();
+                ++removed;
+            }
+        }
+        return removed;
+    }
+    
     /**
      * {@inheritDoc}
      */
@@ -74,36 +113,24 @@ public class FlamingArrowsEntityListener extends EntityListener {
                 realEvent.getProjectile().getFireTicks() > 0) {
                 // Cast the projectile's target to a LivingEntity.
                 final LivingEntity target = (LivingEntity) event.getEntity();
+                
+                // Cast the projectile to an Arrow.
+                final Arrow arrow = (Arrow) realEvent.getProjectile();
 
-                // This is the number of fire ticks.
-                int fireTicks = 0;
+                // Apply the effects configured for this type of arrow.  The
+                // ignite effect remembers who set the target on fire.
+                getPlugin().getEffectPipeline().dispatchHitEntity(
+                        getPlugin().getArrowManager().getArrowType(arrow),
+                        arrow, target);
                 
-                // Check whether we're handling a player or non-player.
-                if (target instanceof Player) {
-                    // Record the number of player fire ticks.
-                    fireTicks = getPlugin().getSettings().getPlayerFireTicks();
-                } else {
-                    // Record the number of non-player fire ticks.
-                    fireTicks = getPlugin().getSettings().getNonPlayerFireTicks();
-                }
-                if (fireTicks != 0) {
-                    // Get the target's current fire ticks.
-                    int currentFireTicks = target.getFireTicks();
-                    
-                    // Don't add more fire ticks then they already have.
-                    if (currentFireTicks < fireTicks) {
-                        // Set the target on fire for some number of ticks.
-                        target.setFireTicks(fireTicks);
-                    }
-                    if (pig != null) {
-                        // Add the pig mobile to the bacon list.
-                        bacon.add(pig);
-                    }
+                if (pig != null && getPlugin().getSettings().getFireTicks(pig) != 0) {
+                    // Add the pig mobile to the bacon list.
+                    addBacon(pig);
                 }
             } else {
                 if (pig != null && pig.getFireTicks() == 0) {
                     // Remove the pig mobile from the bacon list.
-                    bacon.remove(pig);
+                    bacon.remove(pig.getEntityId());
                 }
             }
         } else if (event.getCause() == DamageCause.FIRE ||
@@ -111,69 +138,161 @@ public class FlamingArrowsEntityListener extends EntityListener {
                    event.getCause() == DamageCause.LAVA) {
             if (pig != null) {
                 // Add the pig mobile to the bacon list.
-                bacon.add(pig);
+                addBacon(pig);
             }
         } else {
             if (pig != null && pig.getFireTicks() == 0) {
                 // Remove the pig mobile from the bacon list.
-                bacon.remove(pig);
+                bacon.remove(pig.getEntityId());
             }
         }
     }
     
+    /**
+     * Credits a kill by fire to the {@link Player} who set the victim
+     * alight.  The kill is counted even if they have since left, but
+     * they're only told about it if they're still online.
+     * @param shooterId the shooter's entity ID
+     * @param shooter the shooter's {@link Player} object, or
+     *      <code>null</code> if the shooter wasn't a player
+     * @param victim the {@link LivingEntity} which died
+     */
+    private void creditKill(int shooterId, Player shooter, LivingEntity victim) {
+        getPlugin().getTrace().record(ArrowTrace.Kind.FIRE_KILL,
+                victim.getEntityId(), shooterId);
+        if (shooter == null)
+            return;
+        
+        // Add the kill to the player's saved total.
+        final int kills = getPlugin().getArrowManager().getStateStore()
+            .addCounter(shooter.getName().toLowerCase(),
+                    ArrowStateStore.FIRE_KILLS, 1);
+        if (kills == ArrowStateStore.UNAVAILABLE)
+            return;
+        
+        final String message = getPlugin().getSettings().getFireKillMessage();
+        if (message.length() > 0 && shooter.isOnline()) {
+            shooter.sendMessage(message
+                    .replace("%victim%", describe(victim))
+                    .replace("%kills%", String.valueOf(kills)));
+        }
+    }
+    
+    /**
+     * Describes the victim of a kill for a message.
+     * @param victim the {@link LivingEntity} which died
+     * @return the player's name or the kind of creature
+     */
+    private static String describe(LivingEntity victim) {
+        if (victim instanceof Player)
+            return ((Player) victim).getName();
+        
+        final int index = CreatureIndex.indexOf(victim);
+        if (index == CreatureIndex.UNKNOWN)
+            return "a creature";
+        return "a " + CreatureType.values()[index].name().toLowerCase().replace('_', ' ');
+    }
+    
+    /**
+     * Gets whether a {@link LivingEntity} was killed by fire or by a
+     * flaming arrow from the shooter who set it alight.
+     * @param victim the {@link LivingEntity} which died
+     * @param shooterId the entity ID of the shooter who set it alight
+     * @return <code>true</code> if the kill can be credited to the shooter
+     */
+    private static boolean isFireKill(LivingEntity victim, int shooterId) {
+        final EntityDamageEvent cause = victim.getLastDamageCause();
+        if (cause == null)
+            return false;
+        if (cause.getCause() == DamageCause.FIRE ||
+            cause.getCause() == DamageCause.FIRE_TICK)
+            return true;
+        if (!(cause instanceof EntityDamageByProjectileEvent))
+            return false;
+        
+        // Only the shooter's own flaming arrow counts.
+        final Projectile projectile =
+            ((EntityDamageByProjectileEvent) cause).getProjectile();
+        return projectile instanceof Arrow &&
+            projectile.getFireTicks() > 0 &&
+            projectile.getShooter() != null &&
+            projectile.getShooter().getEntityId() == shooterId;
+    }
+    
     /**
      * {@inheritDoc}
      */
     public void onEntityDeath(EntityDeathEvent event) {
-        // Was this event triggered by the death of a pig?
-        if (event.getEntity() instanceof Pig) {
-            // Cast the entity to a pig.
-            Pig pig = (Pig) event.getEntity();
-            
-            // If the pig was in the bacon list, cook its pork.
-            if (bacon.remove(pig)) {
-                // Iterate over the pigs item drops.
-                for (ItemStack item: event.getDrops()) {
-                    // Was the drop a piece of pork?
-                    if (item.getType() == Material.PORK) {
-                        // Set the item drop to grilled pork.
-                        item.setType(Material.GRILLED_PORK);
-                    }
-                }
-            }
-        }else if (event.getEntity() instanceof Arrow){
-        	Arrow arrow = (Arrow) event.getEntity();
-        	if (arrow.getFireTicks() > 0) {
-        		((Player) arrow.getShooter()).sendMessage("Your firearrow died!");
-        	}
+        // Only players and mobiles can be credited as kills.
+        if (!(event.getEntity() instanceof LivingEntity))
+            return;
+        final LivingEntity victim = (LivingEntity) event.getEntity();
+        
+        // Look up who set the victim on fire, if anyone, and forget them.
+        final BurnAttribution attribution = getPlugin().getBurnAttribution();
+        final int slot = attribution.find(victim.getEntityId());
+        int shooterId = -1;
+        Player shooter = null;
+        ArrowType type = null;
+        if (slot >= 0) {
+            shooterId = attribution.getShooterAt(slot);
+            shooter = attribution.getShooterPlayerAt(slot);
+            type = attribution.getArrowTypeAt(slot);
+            attribution.removeAt(slot);
+        }
+        
+        // Was this a pig in the bacon list?
+        final boolean burningPig = victim instanceof Pig &&
+            bacon.remove(victim.getEntityId()) != null;
+        
+        if (shooterId != -1 && isFireKill(victim, shooterId)) {
+            // Apply the death effects of the arrow which lit the victim and
+            // credit the kill to its shooter.
+            getPlugin().getEffectPipeline().dispatchDeath(type, victim, event.getDrops());
+            creditKill(shooterId, shooter, victim);
+        } else if (burningPig) {
+            // Some other fire got the pig, so apply the death effects
+            // (which normally cook its pork).
+            getPlugin().getEffectPipeline().dispatchDeath(victim, event.getDrops());
         }
     }
+    
+    /**
+     * {@inheritDoc}
+     */
     public void onProjectileHit(ProjectileHitEvent event) {
     	if (!(event.getEntity() instanceof Arrow))
     		return;
     	Arrow arrow = (Arrow)event.getEntity();
+    	// Stop steering the arrow once it has landed.
+    	getPlugin().getHomingTask().release(arrow);
     	if (arrow.getFireTicks() <= 0)
     		return;
-    	Block block = arrow.getLocation().getBlock();
-    	if (block.getType() == org.bukkit.Material.AIR){
-    		block.setType(org.bukkit.Material.FIRE);
-    		return;
-    	}else {
-    		FlamingArrows.logger().info("FireArrow landed in solid block");
-    		if (arrow.getShooter() instanceof Player ){
-    			Player player = (Player) arrow.getShooter();
-    			player.sendMessage("Please Report: FireArrow landed in solid block");
-    		}
-    	}
-    	
+    	// Apply the effects configured for this type of arrow.
+    	getPlugin().getEffectPipeline().dispatchHitBlock(
+    			getPlugin().getArrowManager().untrackArrow(arrow), arrow);
+    	// Remove the arrow later if it stays stuck in the block.
+    	getPlugin().getArrowReaper().track(arrow);
     }
     
     /**
-     * Maintains a list of the pigs damaged by fire.  We track this
+     * The smallest number of pigs in the bacon list at which it's pruned.
+     */
+    private static final int MIN_PRUNE_SIZE = 64;
+    
+    /**
+     * Maintains the pigs damaged by fire, by entity ID.  We track this
      * so we can automatically cook the pork dropped by pigs killed by
-     * fire. 
+     * fire.  Pigs are keyed by entity ID so a pig that takes fire damage
+     * every tick is only held once.
+     */
+    private final Map<Integer, Pig> bacon = new HashMap<Integer, Pig>();
+    
+    /**
+     * The number of pigs in the bacon list at which it's next pruned.
+     * @see #addBacon(Pig)
      */
-    private final List<Pig> bacon = new ArrayList<Pig>();
+    private int baconPruneSize = MIN_PRUNE_SIZE;
     
     /**
      * The {@link FlamingArrows} object
@@ -12,8 +12,10 @@ package org.mudcraft.bukkit.flamingarrows;
 
 import org.bukkit.Material;
 import org.bukkit.craftbukkit.entity.CraftPlayer;
+import org.bukkit.entity.Arrow;
 import org.bukkit.entity.Player;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerListener;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.inventory.Inventory;
@@ -71,6 +73,23 @@ public class FlamingArrowsPlayerListener extends PlayerListener {
         return totalDurability;
     }
     
+    /**
+     * Gets the type of arrow a {@link Player} steps to from the one they're
+     * firing.
+     * @param player the {@link Player} object
+     * @param current the {@link ArrowType} the player is firing
+     * @return the next {@link ArrowType} the player is permitted to fire,
+     *      or <code>null</code> to switch flaming arrows off
+     */
+    private ArrowType getNextArrowType(Player player, ArrowType current) {
+        final ArrowType[] types = ArrowType.values();
+        for (int i = current.ordinal() + 1; i < types.length; ++i) {
+            if (FlamingArrows.hasPermission(player, types[i].getPermission()))
+                return types[i];
+        }
+        return null;
+    }
+    
     /**
      * Gets the plug-in.
      * @return the {@link FlamingArrows} object
@@ -78,6 +97,20 @@ public class FlamingArrowsPlayerListener extends PlayerListener {
     public FlamingArrows getPlugin() {
         return plugin;
     }
+    
+    /**
+     * Gets whether a {@link Player} has enough flint & steel charges for a
+     * flaming arrow, in their quiver if it's enabled or else in their
+     * inventory.
+     * @param player the {@link Player} object
+     * @return <code>true</code> if the player can light an arrow
+     */
+    private boolean hasFlintAndSteelCharges(Player player) {
+        final int cost = getPlugin().getSettings().getFlintAndSteelDurabilityCost();
+        if (getPlugin().getSettings().isQuiverEnabled())
+            return getPlugin().getQuiver().getCharges(player) >= cost;
+        return getFlintAndSteelDurability(player) >= cost;
+    }
 
     /**
      * {@inheritDoc}
@@ -100,23 +133,29 @@ public class FlamingArrowsPlayerListener extends PlayerListener {
             if (itemStack == null ||
                 itemStack.getType() != getPlugin().getSettings().getWand())
                 return;
-            if (!FlamingArrows.permissionHandler.has(p,"FlamingArrows.ignite"))
+            if (!FlamingArrows.hasPermission(p,"FlamingArrows.ignite"))
             	return;
             
             
-            // First we'll try to remove the player.
-            // If that doesn't work, we know the player was not present
-            // in the list, so they're safe to be added.
+            // Find out which arrows the player is currently firing.
+            final ArrowType current = getPlugin().getArrowManager().getArrowType(p);
+            
+            // Players who aren't firing flaming arrows are safe to be added.
+            // Otherwise players step through the other types of arrow they
+            // are permitted to fire before they're switched off.
             // Redone by bladedpenguin to inform the player they are out of flint and steel
-            if (getPlugin().getArrowManager().getPlayers().remove(p) == false)
-            	if (getFlintAndSteelDurability(p) < getPlugin().getSettings().getFlintAndSteelDurabilityCost())
+            if (current == null)
+            	if (!hasFlintAndSteelCharges(p))
             		p.sendMessage(getPlugin().getSettings().getRanOutMessage());
             	else {
-            		getPlugin().getArrowManager().getPlayers().add(p);
+            		getPlugin().getArrowManager().setArrowType(p, ArrowType.FLAMING);
             		p.sendMessage(getPlugin().getSettings().getEnabledMessage());
             	}
-            else
-            	p.sendMessage(getPlugin().getSettings().getDisabledMessage());
+            else {
+            	final ArrowType next = getNextArrowType(p, current);
+            	getPlugin().getArrowManager().setArrowType(p, next);
+            	p.sendMessage(getPlugin().getSettings().getMessage(next));
+            }
             		
             // Cancel the event.
             event.setCancelled(true);
@@ -128,30 +167,57 @@ public class FlamingArrowsPlayerListener extends PlayerListener {
                 return;
             
             // The player must have enabled flaming arrows.
-            if (!getPlugin().getArrowManager().getPlayers().contains(p))
+            final ArrowType type = getPlugin().getArrowManager().getArrowType(p);
+            if (type == null)
                 return;
             
             // The player must have at least one arrow.
-            if (!p.getInventory().contains(Material.ARROW))
+            final boolean quiverEnabled = getPlugin().getSettings().isQuiverEnabled();
+            if (quiverEnabled ? getPlugin().getQuiver().getArrows(p) < 1 :
+                    !p.getInventory().contains(Material.ARROW))
                 return;
             
             // The player must have at least one flint & steel.
             // bladedpenguin says they should know when they are out
-            if (getFlintAndSteelDurability(p) < getPlugin().getSettings().getFlintAndSteelDurabilityCost()){
-            	getPlugin().getArrowManager().getPlayers().remove(p);
+            if (!hasFlintAndSteelCharges(p)){
+            	getPlugin().getArrowManager().setArrowType(p, null);
             	p.sendMessage(getPlugin().getSettings().getRanOutMessage());
             	return;
             }
             	
+            if (quiverEnabled) {
+                // Take the arrow and charges from the player's quiver,
+                // leaving their inventory alone.
+                final int cost =
+                    getPlugin().getSettings().getFlintAndSteelDurabilityCost();
+                getPlugin().getQuiver().take(p, cost);
+                
+                // Record the shot as taken from the quiver.
+                getPlugin().getTrace().record(ArrowTrace.Kind.SHOT, cost, 1);
+            } else {
+                // Remove one arrow from the player's inventory.
+                p.getInventory().removeItem(new ItemStack(Material.ARROW, 1));
 
-            // Remove one arrow from the player's inventory.
-            p.getInventory().removeItem(new ItemStack(Material.ARROW, 1));
-
-            // Deduct flint & steel charges from the player.
-            removeFlintAndSteelCharges(p);
+                // Deduct flint & steel charges from the player.
+                final int charges = removeFlintAndSteelCharges(p);
+                
+                // Record the shot as taken from the inventory.
+                getPlugin().getTrace().record(ArrowTrace.Kind.SHOT, charges, 0);
+            }
             
             // Cause the player to fire a flaming arrow.
-            p.shootArrow().setFireTicks(600);
+            final Arrow arrow = p.shootArrow();
+            arrow.setFireTicks(600);
+            
+            if (type != ArrowType.FLAMING) {
+                // Remember what kind of arrow this is for when it lands.
+                getPlugin().getArrowManager().trackArrow(arrow, type);
+            }
+            
+            if (type == ArrowType.HOMING) {
+                // Steer the arrow toward targets while it flies.
+                getPlugin().getHomingTask().guide(arrow);
+            }
             
             // Cancel the event.
             event.setCancelled(true);
@@ -159,11 +225,21 @@ public class FlamingArrowsPlayerListener extends PlayerListener {
         }
     }
     
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        // Give the player back the arrows they were firing.
+        getPlugin().getArrowManager().restore(event.getPlayer());
+    }
+    
     /**
      * {@inheritDoc}
      */
     @Override
     public void onPlayerQuit(PlayerQuitEvent event) {
+        // Forget the player without changing their saved arrow type.
         getPlugin().getArrowManager().getPlayers().remove(event.getPlayer());
     }
     
@@ -171,9 +247,9 @@ public class FlamingArrowsPlayerListener extends PlayerListener {
      * Removes the correct number of flint & steel durability points and
      * {@link ItemStack}s from a {@link Player}'s inventory.
      * @param player the {@link Player} object
-     * @param charges the number of charges to be subtracted
+     * @return the number of charges subtracted
      */
-    void removeFlintAndSteelCharges(Player player) {
+    int removeFlintAndSteelCharges(Player player) {
         // Save off a reference to the player's inventory.
         final Inventory inventory = player.getInventory();
         
@@ -181,6 +257,9 @@ public class FlamingArrowsPlayerListener extends PlayerListener {
         int numberOfCharges =
             getPlugin().getSettings().getFlintAndSteelDurabilityCost();
         
+        // The number of charges actually subtracted.
+        int chargesRemoved = 0;
+        
         // Loop until we've subtracted enough charges.
         while (numberOfCharges-- > 0) {
             // Search for flint and steel in the player's inventory.
@@ -214,9 +293,12 @@ public class FlamingArrowsPlayerListener extends PlayerListener {
                 // Reduce the durability of the item stack.
                 itemStack.setDurability((short) (durability + 1));
             }
+            ++chargesRemoved;
         }
         // Update the player's inventory.
         ((CraftPlayer) player).updateInventory();
+        
+        return chargesRemoved;
     }
     
     /**
@@ -0,0 +1,399 @@
+/**
+ * @file FlammabilityAnalyzer.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.entity.Arrow;
+import org.bukkit.entity.Player;
+
+/**
+ * Decides where the fire of a flaming arrow should be placed.  The blocks
+ * around the point of impact are copied into {@link ChunkSnapshot}s on the
+ * main thread and inspected by a pool of worker threads, which look for
+ * the nearest air block next to something flammable.  Only the final
+ * placement of the fire happens back on the main thread, and only if the
+ * chosen block is still air and still next to something flammable.
+ * <p>
+ * Only the chunks the search sphere actually reaches are copied, which is
+ * usually just the one the arrow landed in, and snapshots are shared by
+ * every arrow which lands in the same tick, so a volley of arrows into one
+ * spot copies each chunk only once.  The worker pool is rebuilt when a
+ * reload changes the number of worker threads.
+ * @author Geoffrey Davis
+ */
+public class FlammabilityAnalyzer {
+    /**
+     * Constructs a new {@link FlammabilityAnalyzer} instance.
+     * @param plugin the {@link FlamingArrows} object
+     */
+    public FlammabilityAnalyzer(FlamingArrows plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Starts the analysis for an {@link Arrow} which has landed.  Must be
+     * called from the main thread.
+     * @param arrow the {@link Arrow} object
+     */
+    public void analyze(Arrow arrow) {
+        // Save off the point of impact.
+        final Location location = arrow.getLocation();
+        final World world = location.getWorld();
+        final int x = location.getBlockX();
+        final int y = location.getBlockY();
+        final int z = location.getBlockZ();
+
+        // The search radius, plus one block for the neighbours.
+        final int radius = Math.max(Math.min(
+                getPlugin().getSettings().getIgnitionSearchRadius(),
+                IgnitionMasks.MAX_RADIUS), 0);
+        final int reach = radius + 1;
+
+        // Gather snapshots of the loaded chunks the search sphere reaches,
+        // reusing any already taken this tick.
+        final Map<Long, ChunkSnapshot> snapshots =
+            new HashMap<Long, ChunkSnapshot>();
+        for (int cx = (x - reach) >> 4; cx <= (x + reach) >> 4; ++cx) {
+            for (int cz = (z - reach) >> 4; cz <= (z + reach) >> 4; ++cz) {
+                if (reaches(x, z, cx, cz, radius) == false)
+                    continue;
+                final ChunkSnapshot snapshot = getSnapshot(world, cx, cz);
+                if (snapshot != null)
+                    snapshots.put(chunkKey(cx, cz), snapshot);
+            }
+        }
+
+        // Save off the shooter so they can be told about failures.
+        final Player shooter = arrow.getShooter() instanceof Player ?
+                (Player) arrow.getShooter() : null;
+
+        // Hand the search over to the worker threads.
+        getExecutor().execute(new Runnable() {
+            public void run() {
+                // Find the block to set on fire.
+                final int[] target = search(snapshots, x, y, z, radius);
+
+                // Place the fire back on the main thread.
+                getPlugin().getServer().getScheduler().scheduleSyncDelayedTask(
+                        getPlugin(), new Runnable() {
+                    public void run() {
+                        ignite(world, x, y, z, target, shooter);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Computes the key of a chunk in the snapshot map.
+     * @param cx the chunk X coordinate
+     * @param cz the chunk Z coordinate
+     * @return the chunk key
+     */
+    private static long chunkKey(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Gets the worker threads, starting them if necessary.  The pool is
+     * replaced if the configured number of threads has changed.
+     * @return an {@link ExecutorService} object
+     */
+    private synchronized ExecutorService getExecutor() {
+        final int threads =
+            Math.max(getPlugin().getSettings().getIgnitionWorkerThreads(), 1);
+        if (executor != null && executorThreads != threads) {
+            // Let the old pool finish the searches it has already started.
+            executor.shutdown();
+            executor = null;
+        }
+
+        if (executor == null) {
+            // Create a pool of daemon threads so a stuck search can never
+            // hold up a server shutdown.
+            executorThreads = threads;
+            executor = Executors.newFixedThreadPool(threads,
+                    new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread =
+                        new Thread(runnable, "FlamingArrows-Analyzer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Gets the plug-in.
+     * @return the {@link FlamingArrows} object
+     */
+    public FlamingArrows getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Gets a snapshot of a loaded chunk, taking it only if it hasn't
+     * already been taken this tick.  Must be called from the main thread.
+     * @param world the {@link World} object
+     * @param cx the chunk X coordinate
+     * @param cz the chunk Z coordinate
+     * @return the {@link ChunkSnapshot} object, or <code>null</code> if the
+     *      chunk isn't loaded
+     */
+    private ChunkSnapshot getSnapshot(World world, int cx, int cz) {
+        if (tickSnapshots.isEmpty()) {
+            // Forget this tick's snapshots at the start of the next one.
+            getPlugin().getServer().getScheduler().scheduleSyncDelayedTask(
+                    getPlugin(), new Runnable() {
+                public void run() {
+                    tickSnapshots.clear();
+                }
+            }, 1);
+        }
+
+        // Look for a snapshot taken earlier in the tick.
+        Map<Long, ChunkSnapshot> worldSnapshots = tickSnapshots.get(world);
+        if (worldSnapshots == null) {
+            worldSnapshots = new HashMap<Long, ChunkSnapshot>();
+            tickSnapshots.put(world, worldSnapshots);
+        }
+        final Long key = chunkKey(cx, cz);
+        if (worldSnapshots.containsKey(key))
+            return worldSnapshots.get(key);
+
+        // Take the snapshot, remembering unloaded chunks as well.
+        final ChunkSnapshot snapshot = world.isChunkLoaded(cx, cz) ?
+                world.getChunkAt(cx, cz).getChunkSnapshot() : null;
+        worldSnapshots.put(key, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Gets the type of a block from the snapshots.
+     * @param snapshots the {@link ChunkSnapshot}s, by chunk key
+     * @param x the block X coordinate
+     * @param y the block Y coordinate
+     * @param z the block Z coordinate
+     * @return the block type ID, or <code>-1</code> if the block is not
+     *      covered by a snapshot
+     */
+    private static int getTypeId(Map<Long, ChunkSnapshot> snapshots,
+                                 int x, int y, int z) {
+        // Stay within the world.
+        if (y < 0 || y > 127)
+            return -1;
+
+        // Find the snapshot of the chunk holding the block.
+        final ChunkSnapshot snapshot = snapshots.get(chunkKey(x >> 4, z >> 4));
+        if (snapshot == null)
+            return -1;
+
+        return snapshot.getBlockTypeId(x & 15, y, z & 15);
+    }
+
+    /**
+     * Sets fire to the block chosen by a search.  Runs on the main thread.
+     * @param world the {@link World} in which the arrow landed
+     * @param x the X coordinate of the point of impact
+     * @param y the Y coordinate of the point of impact
+     * @param z the Z coordinate of the point of impact
+     * @param target the block coordinates, or <code>null</code>
+     * @param shooter the {@link Player} who fired the arrow, or
+     *      <code>null</code>
+     */
+    private void ignite(World world, int x, int y, int z, int[] target,
+                        Player shooter) {
+        if (target == null) {
+            getPlugin().getTrace().record(ArrowTrace.Kind.IMPACT_FAILED, x, y, z);
+            FlamingArrows.logger().info("FireArrow landed in solid block");
+            if (shooter != null && shooter.isOnline()) {
+                shooter.sendMessage("Please Report: FireArrow landed in solid block");
+            }
+            return;
+        }
+
+        // Make certain the block hasn't changed since the snapshot, and
+        // that whatever it was chosen to burn is still there.
+        if (world.getBlockTypeIdAt(target[0], target[1], target[2]) !=
+                Material.AIR.getId() ||
+            (target[3] != 0 &&
+             hasFlammableNeighbour(world, target[0], target[1], target[2]) == false)) {
+            getPlugin().getTrace().record(ArrowTrace.Kind.IMPACT_FAILED, x, y, z);
+            return;
+        }
+
+        world.getBlockAt(target[0], target[1], target[2])
+            .setType(Material.FIRE);
+        getPlugin().getTrace().record(ArrowTrace.Kind.BLOCK_IGNITED,
+                target[0], target[1], target[2]);
+    }
+
+    /**
+     * Gets whether any of the six neighbours of a block burns, as the
+     * world is now.  Runs on the main thread.
+     * @param world the {@link World} object
+     * @param x the block X coordinate
+     * @param y the block Y coordinate
+     * @param z the block Z coordinate
+     * @return <code>true</code> if a neighbour is flammable
+     */
+    private static boolean hasFlammableNeighbour(World world, int x, int y, int z) {
+        return isFlammable(world.getBlockTypeIdAt(x - 1, y, z)) ||
+            isFlammable(world.getBlockTypeIdAt(x + 1, y, z)) ||
+            (y > 0 && isFlammable(world.getBlockTypeIdAt(x, y - 1, z))) ||
+            (y < 127 && isFlammable(world.getBlockTypeIdAt(x, y + 1, z))) ||
+            isFlammable(world.getBlockTypeIdAt(x, y, z - 1)) ||
+            isFlammable(world.getBlockTypeIdAt(x, y, z + 1));
+    }
+
+    /**
+     * Gets whether a block type burns.
+     * @param typeId the block type ID
+     * @return <code>true</code> if the block is flammable
+     */
+    private static boolean isFlammable(int typeId) {
+        return typeId >= 0 && typeId < FLAMMABLE.length && FLAMMABLE[typeId];
+    }
+
+    /**
+     * Checks whether the search around a point of impact reads any block
+     * of a chunk: a block inside the sphere, or a neighbour one step
+     * beyond it along an axis.  Only the column nearest the point of
+     * impact needs checking, since the search only narrows further out.
+     * @param x the X coordinate of the point of impact
+     * @param z the Z coordinate of the point of impact
+     * @param cx the chunk X coordinate
+     * @param cz the chunk Z coordinate
+     * @param radius the search radius
+     * @return <code>true</code> if the chunk is needed
+     */
+    private static boolean reaches(int x, int z, int cx, int cz, int radius) {
+        // The distance along each axis to the chunk's nearest column.
+        final int dx = Math.abs(Math.max(Math.min(x, (cx << 4) + 15), cx << 4) - x);
+        final int dz = Math.abs(Math.max(Math.min(z, (cz << 4) + 15), cz << 4) - z);
+
+        final int r2 = radius * radius;
+        return dx * dx + dz * dz <= r2 ||
+            (dx > 0 && (dx - 1) * (dx - 1) + dz * dz <= r2) ||
+            (dz > 0 && dx * dx + (dz - 1) * (dz - 1) <= r2);
+    }
+
+    /**
+     * Searches the snapshots for the nearest air block next to something
+     * flammable.  Runs on a worker thread.
+     * @param snapshots the {@link ChunkSnapshot}s, by chunk key
+     * @param x the X coordinate of the point of impact
+     * @param y the Y coordinate of the point of impact
+     * @param z the Z coordinate of the point of impact
+     * @param radius the search radius
+     * @return the block coordinates followed by <code>1</code> if the
+     *      block was chosen for a flammable neighbour or <code>0</code> if
+     *      not, or <code>null</code> if there is nowhere to place the fire
+     */
+    private static int[] search(Map<Long, ChunkSnapshot> snapshots,
+                                int x, int y, int z, int radius) {
+        // The search walks outwards from the point of impact.
+        final int[] offsets = IgnitionMasks.getOffsets(radius);
+
+        for (int i = 0; i < offsets.length; i += 3) {
+            final int bx = x + offsets[i];
+            final int by = y + offsets[i + 1];
+            final int bz = z + offsets[i + 2];
+
+            // Fire can only be placed in air.
+            if (getTypeId(snapshots, bx, by, bz) != Material.AIR.getId())
+                continue;
+
+            // Check the six neighbours for something to burn.
+            if (isFlammable(getTypeId(snapshots, bx - 1, by, bz)) ||
+                isFlammable(getTypeId(snapshots, bx + 1, by, bz)) ||
+                isFlammable(getTypeId(snapshots, bx, by - 1, bz)) ||
+                isFlammable(getTypeId(snapshots, bx, by + 1, bz)) ||
+                isFlammable(getTypeId(snapshots, bx, by, bz - 1)) ||
+                isFlammable(getTypeId(snapshots, bx, by, bz + 1))) {
+                return new int[] { bx, by, bz, 1 };
+            }
+        }
+
+        // Nothing flammable nearby, so burn where the arrow landed.
+        if (getTypeId(snapshots, x, y, z) == Material.AIR.getId())
+            return new int[] { x, y, z, 0 };
+
+        return null;
+    }
+
+    /**
+     * Stops the worker threads.  Searches which haven't finished are
+     * abandoned.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        tickSnapshots.clear();
+    }
+
+    /**
+     * The block types which burn, indexed by type ID.
+     */
+    private static final boolean[] FLAMMABLE = new boolean[256];
+
+    static {
+        FLAMMABLE[Material.WOOD.getId()] = true;
+        FLAMMABLE[Material.LOG.getId()] = true;
+        FLAMMABLE[Material.LEAVES.getId()] = true;
+        FLAMMABLE[Material.LONG_GRASS.getId()] = true;
+        FLAMMABLE[Material.DEAD_BUSH.getId()] = true;
+        FLAMMABLE[Material.WOOL.getId()] = true;
+        FLAMMABLE[Material.TNT.getId()] = true;
+        FLAMMABLE[Material.BOOKSHELF.getId()] = true;
+        FLAMMABLE[Material.WOOD_STAIRS.getId()] = true;
+        FLAMMABLE[Material.FENCE.getId()] = true;
+    }
+
+    /**
+     * The worker threads, or <code>null</code> if they aren't running.
+     * @see #getExecutor()
+     */
+    private ExecutorService executor;
+
+    /**
+     * The number of threads in {@link #executor}.
+     */
+    private int executorThreads;
+
+    /**
+     * The {@link FlamingArrows} object
+     * @see #getPlugin()
+     */
+    private final FlamingArrows plugin;
+
+    /**
+     * The chunk snapshots taken during the current tick, by world and chunk
+     * key.  Chunks which weren't loaded map to <code>null</code>.  Only
+     * touched on the main thread.
+     * @see #getSnapshot(World, int, int)
+     */
+    private final Map<World, Map<Long, ChunkSnapshot>> tickSnapshots =
+        new HashMap<World, Map<Long, ChunkSnapshot>>();
+}
@@ -0,0 +1,343 @@
+/**
+ * @file HomingTask.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.AnimalTamer;
+import org.bukkit.entity.Arrow;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Ghast;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Monster;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Slime;
+import org.bukkit.entity.Tameable;
+import org.bukkit.util.Vector;
+
+/**
+ * Steers homing arrows toward the nearest living target in front of
+ * them.  Every tick, one task brings an {@link EntityGrid} up to date for
+ * each world with homing arrows in flight, then turns each arrow a little
+ * toward the nearest entity inside its cone of vision.  Each arrow only
+ * looks at the entities in the grid cells around it.
+ * <p>
+ * Hostile creatures are preferred over anything else in the cone.  An
+ * arrow never homes in on an animal its shooter has tamed, nor on a
+ * player in a world where PvP is disabled.
+ * @author Geoffrey Davis
+ */
+public class HomingTask implements Runnable {
+    /**
+     * Constructs a new {@link HomingTask} instance.
+     * @param plugin the {@link FlamingArrows} object
+     */
+    public HomingTask(FlamingArrows plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Forgets every homing arrow and stops the task.
+     */
+    public void cancel() {
+        arrows.clear();
+        grids.clear();
+
+        if (taskId != -1) {
+            // Stop the repeating task.
+            getPlugin().getServer().getScheduler().cancelTask(taskId);
+            taskId = -1;
+        }
+    }
+
+    /**
+     * Gets the number of arrows being steered.
+     * @return the number of homing arrows
+     */
+    public int getPendingCount() {
+        return arrows.size();
+    }
+
+    /**
+     * Gets the plug-in.
+     * @return the {@link FlamingArrows} object
+     */
+    public FlamingArrows getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Starts steering an {@link Arrow} which has just been fired.
+     * @param arrow the {@link Arrow} object
+     */
+    public void guide(Arrow arrow) {
+        arrows.put(arrow.getEntityId(), new Guided(arrow));
+
+        if (taskId == -1) {
+            // Start steering on the next tick.
+            taskId = getPlugin().getServer().getScheduler()
+                .scheduleSyncRepeatingTask(getPlugin(), this, 1, 1);
+        }
+    }
+
+    /**
+     * Gets whether an entity is a hostile creature.
+     * @param entity the {@link LivingEntity} object
+     * @return <code>true</code> if the entity attacks players
+     */
+    private static boolean isHostile(LivingEntity entity) {
+        return entity instanceof Monster || entity instanceof Ghast ||
+            entity instanceof Slime;
+    }
+
+    /**
+     * Gets whether an entity may be targeted by a shooter's arrow.
+     * @param entity the {@link LivingEntity} object
+     * @param shooterId the entity ID of the shooter
+     * @param pvp <code>true</code> if PvP is enabled in the entity's world
+     * @return <code>true</code> if the arrow may home in on the entity
+     */
+    private static boolean isTarget(LivingEntity entity, int shooterId,
+                                    boolean pvp) {
+        // Never turn back on the shooter.
+        if (entity.getEntityId() == shooterId || entity.isDead())
+            return false;
+
+        // Leave other players alone unless PvP is enabled.
+        if (entity instanceof Player)
+            return pvp;
+
+        // Leave the shooter's pets alone.
+        if (entity instanceof Tameable && ((Tameable) entity).isTamed()) {
+            final AnimalTamer owner = ((Tameable) entity).getOwner();
+            if (owner instanceof Entity &&
+                ((Entity) owner).getEntityId() == shooterId)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops steering an {@link Arrow}, normally once it has landed.
+     * @param arrow the {@link Arrow} object
+     */
+    public void release(Arrow arrow) {
+        arrows.remove(arrow.getEntityId());
+    }
+
+    /**
+     * Steers every homing arrow.  Runs on the main thread once per tick.
+     */
+    public void run() {
+        // Drop the arrows which are gone or have flown for too long, and
+        // note the worlds the others are in.
+        final Set<World> worlds = new HashSet<World>();
+        for (Iterator<Guided> it = arrows.values().iterator(); it.hasNext();) {
+            final Guided guided = it.next();
+            if (guided.arrow.isDead() || ++guided.ticks > MAX_TICKS) {
+                it.remove();
+            } else {
+                worlds.add(guided.arrow.getWorld());
+            }
+        }
+
+        if (arrows.isEmpty()) {
+            // Nothing left to steer.
+            cancel();
+            return;
+        }
+
+        // Bring the grid of each world with arrows up to date, and drop the
+        // grids of worlds without any.
+        grids.keySet().retainAll(worlds);
+        for (World world: worlds) {
+            EntityGrid grid = grids.get(world);
+            if (grid == null) {
+                grid = new EntityGrid(CELL_SIZE);
+                grids.put(world, grid);
+            }
+            grid.update(world);
+        }
+
+        // Read the steering settings once for the whole batch.
+        final double range = getPlugin().getSettings().getHomingRange();
+        final double cosCone = Math.cos(Math.toRadians(
+                getPlugin().getSettings().getHomingConeAngle()));
+        final double turn = getPlugin().getSettings().getHomingTurnRate() / 100.0;
+
+        for (Guided guided: arrows.values()) {
+            steer(guided, grids.get(guided.arrow.getWorld()), range, cosCone, turn);
+        }
+    }
+
+    /**
+     * Turns an arrow toward the nearest target inside its cone, or toward
+     * the nearest hostile creature if there is one.
+     * @param guided the {@link Guided} arrow
+     * @param grid the {@link EntityGrid} of the arrow's world
+     * @param range the distance at which targets are noticed
+     * @param cosCone the cosine of the cone's half-angle
+     * @param turn the fraction of the way to turn toward the target
+     */
+    private void steer(Guided guided, EntityGrid grid, double range,
+                       double cosCone, double turn) {
+        // Work out which way the arrow is flying.
+        final Vector velocity = guided.arrow.getVelocity();
+        final double speed = velocity.length();
+        if (speed < MIN_SPEED)
+            return;
+        final double dx = velocity.getX() / speed;
+        final double dy = velocity.getY() / speed;
+        final double dz = velocity.getZ() / speed;
+
+        // Gather the entities in the cells around the arrow.
+        final Location location = guided.arrow.getLocation();
+        candidates.clear();
+        grid.query(location.getX(), location.getZ(), range, candidates);
+
+        // Find the nearest entity inside the cone, preferring hostiles.
+        final boolean pvp = guided.arrow.getWorld().getPVP();
+        double bestSquared = range * range;
+        double tx = 0, ty = 0, tz = 0;
+        boolean found = false;
+        boolean foundHostile = false;
+        for (int i = 0; i < candidates.size(); ++i) {
+            final LivingEntity candidate = candidates.get(i);
+            if (isTarget(candidate, guided.shooterId, pvp) == false)
+                continue;
+
+            // Once a hostile is in sight, nothing else will do.
+            final boolean hostile = isHostile(candidate);
+            if (foundHostile && hostile == false)
+                continue;
+
+            // Aim for the middle of the body.
+            final Location target = candidate.getLocation();
+            final double ox = target.getX() - location.getX();
+            final double oy = target.getY() + 1.0 - location.getY();
+            final double oz = target.getZ() - location.getZ();
+            final double distanceSquared = ox * ox + oy * oy + oz * oz;
+            if (distanceSquared < 0.01 || distanceSquared >= range * range)
+                continue;
+
+            // A hostile beats any other target; otherwise nearer wins.
+            if (distanceSquared >= bestSquared && hostile == foundHostile)
+                continue;
+
+            // Skip targets outside of the cone.
+            if (ox * dx + oy * dy + oz * dz <
+                    Math.sqrt(distanceSquared) * cosCone)
+                continue;
+
+            bestSquared = distanceSquared;
+            tx = ox;
+            ty = oy;
+            tz = oz;
+            found = true;
+            foundHostile = hostile;
+        }
+        candidates.clear();
+        if (found == false)
+            return;
+
+        // Turn part of the way toward the target, keeping the arrow's speed.
+        final double distance = Math.sqrt(bestSquared);
+        final double sx = dx + (tx / distance - dx) * turn;
+        final double sy = dy + (ty / distance - dy) * turn;
+        final double sz = dz + (tz / distance - dz) * turn;
+        final double length = Math.sqrt(sx * sx + sy * sy + sz * sz);
+        if (length < 0.0001)
+            return;
+        guided.arrow.setVelocity(new Vector(
+                sx / length * speed, sy / length * speed, sz / length * speed));
+    }
+
+    /**
+     * An arrow being steered.
+     */
+    private static class Guided {
+        /**
+         * Constructs a new {@link Guided} instance.
+         * @param arrow the {@link Arrow} object
+         */
+        Guided(Arrow arrow) {
+            this.arrow = arrow;
+            this.shooterId = arrow.getShooter() != null ?
+                    arrow.getShooter().getEntityId() : -1;
+        }
+
+        /**
+         * The arrow.
+         */
+        final Arrow arrow;
+
+        /**
+         * The entity ID of the shooter, or <code>-1</code>.
+         */
+        final int shooterId;
+
+        /**
+         * The number of ticks the arrow has been steered for.
+         */
+        int ticks = 0;
+    }
+
+    /**
+     * The width of a grid cell, in blocks.
+     */
+    private static final int CELL_SIZE = 8;
+
+    /**
+     * The number of ticks after which an arrow is no longer steered.
+     */
+    private static final int MAX_TICKS = 200;
+
+    /**
+     * The speed below which an arrow is taken to have stopped.
+     */
+    private static final double MIN_SPEED = 0.1;
+
+    /**
+     * The arrows being steered, by entity ID.
+     */
+    private final Map<Integer, Guided> arrows = new HashMap<Integer, Guided>();
+
+    /**
+     * Reused while looking for targets, to save allocating a list per
+     * arrow.
+     */
+    private final List<LivingEntity> candidates = new ArrayList<LivingEntity>();
+
+    /**
+     * The entity grid of each world with arrows in flight.
+     */
+    private final Map<World, EntityGrid> grids = new HashMap<World, EntityGrid>();
+
+    /**
+     * The {@link FlamingArrows} object
+     * @see #getPlugin()
+     */
+    private final FlamingArrows plugin;
+
+    /**
+     * The ID of the repeating task, or <code>-1</code> if it isn't
+     * running.
+     */
+    private int taskId = -1;
+}
@@ -0,0 +1,92 @@
+/**
+ * @file IgnitionMasks.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Precomputed tables of the block offsets which fall inside a sphere of
+ * a given radius.  The offsets are stored as flattened
+ * <code>{dx, dy, dz}</code> triples, ordered from the center outwards,
+ * so callers can walk a sphere without any distance math of their own.
+ * @author Geoffrey Davis
+ */
+public final class IgnitionMasks {
+    /**
+     * This class only has static members.
+     */
+    private IgnitionMasks() {
+    }
+
+    /**
+     * Gets the offsets of the blocks inside a sphere.
+     * @param radius the radius of the sphere, between <code>0</code> and
+     *      {@link #MAX_RADIUS}
+     * @return the flattened <code>{dx, dy, dz}</code> triples, nearest
+     *      first; the array must not be modified
+     */
+    public static int[] getOffsets(int radius) {
+        return OFFSETS[Math.max(Math.min(radius, MAX_RADIUS), 0)];
+    }
+
+    /**
+     * Computes the offsets of the blocks inside a sphere.
+     * @param radius the radius of the sphere
+     * @return the flattened <code>{dx, dy, dz}</code> triples, nearest first
+     */
+    private static int[] computeOffsets(int radius) {
+        // Collect every offset within the sphere.
+        final List<int[]> cells = new ArrayList<int[]>();
+        for (int dx = -radius; dx <= radius; ++dx) {
+            for (int dy = -radius; dy <= radius; ++dy) {
+                for (int dz = -radius; dz <= radius; ++dz) {
+                    if (dx * dx + dy * dy + dz * dz <= radius * radius)
+                        cells.add(new int[] { dx, dy, dz });
+                }
+            }
+        }
+
+        // Order the offsets from the center outwards.
+        Collections.sort(cells, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return (a[0] * a[0] + a[1] * a[1] + a[2] * a[2]) -
+                       (b[0] * b[0] + b[1] * b[1] + b[2] * b[2]);
+            }
+        });
+
+        // Flatten the offsets into a single array.
+        final int[] offsets = new int[cells.size() * 3];
+        for (int i = 0; i < cells.size(); ++i) {
+            System.arraycopy(cells.get(i), 0, offsets, i * 3, 3);
+        }
+        return offsets;
+    }
+
+    /**
+     * The largest supported radius.
+     */
+    public static final int MAX_RADIUS = 8;
+
+    /**
+     * The offset tables, indexed by radius.
+     */
+    private static final int[][] OFFSETS = new int[MAX_RADIUS + 1][];
+
+    static {
+        // Build every table up front so the arrays are safely shared.
+        for (int radius = 0; radius <= MAX_RADIUS; ++radius) {
+            OFFSETS[radius] = computeOffsets(radius);
+        }
+    }
+}
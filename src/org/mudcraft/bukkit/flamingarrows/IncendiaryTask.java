@@ -0,0 +1,315 @@
+/**
+ * @file IncendiaryTask.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+
+/**
+ * Spreads the fire of incendiary arrows over a number of ticks.  Each
+ * impact is queued as a blast, and every tick the task examines at most
+ * a configured number of blocks and entities so that a single arrow can
+ * never stall the server.
+ * @author Geoffrey Davis
+ */
+public class IncendiaryTask implements Runnable {
+    /**
+     * Constructs a new {@link IncendiaryTask} instance.
+     * @param plugin the {@link FlamingArrows} object
+     */
+    public IncendiaryTask(FlamingArrows plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Queues an incendiary blast.
+     * @param location the point of impact
+     * @param radius the radius of the blast
+     */
+    public void addBlast(Location location, int radius) {
+        // Queue the blast behind any others still burning.
+        blasts.add(new Blast(location, radius));
+
+        if (taskId == -1) {
+            // Start working through the queue on the next tick.
+            taskId = getPlugin().getServer().getScheduler()
+                .scheduleSyncRepeatingTask(getPlugin(), this, 0, 1);
+        }
+    }
+
+    /**
+     * Discards any queued blasts and stops the task.
+     */
+    public void cancel() {
+        blasts.clear();
+
+        if (taskId != -1) {
+            // Stop the repeating task.
+            getPlugin().getServer().getScheduler().cancelTask(taskId);
+            taskId = -1;
+        }
+    }
+
+    /**
+     * Gets the number of blasts waiting to be processed.
+     * @return the number of queued blasts
+     */
+    public int getPendingCount() {
+        return blasts.size();
+    }
+
+    /**
+     * Gets the plug-in.
+     * @return the {@link FlamingArrows} object
+     */
+    public FlamingArrows getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Sets fire to the next {@link LivingEntity}s caught in a blast.  The
+     * chunks overlapping the blast are visited one at a time, and the walk
+     * stops as soon as the budget is spent, carrying on from the same
+     * entity on the next tick.
+     * @param blast the {@link Blast} object
+     * @param budget the maximum number of chunks and entities to examine
+     * @return the number of chunks and entities examined
+     */
+    private int igniteEntities(Blast blast, int budget) {
+        // The number of chunks and entities we looked at.
+        int examined = 0;
+
+        // The square of the blast radius, for comparing distances.
+        final double radiusSquared = blast.radius * blast.radius;
+
+        // The chunks which overlap the blast.
+        final int minChunkX = (blast.x - blast.radius) >> 4;
+        final int minChunkZ = (blast.z - blast.radius) >> 4;
+        final int chunksZ = ((blast.z + blast.radius) >> 4) - minChunkZ + 1;
+        final int chunkCount =
+            (((blast.x + blast.radius) >> 4) - minChunkX + 1) * chunksZ;
+
+        while (examined < budget) {
+            if (blast.chunkEntities == null) {
+                // Move on to the next chunk, if there is one.
+                if (blast.chunkCursor >= chunkCount) {
+                    blast.entitiesIgnited = true;
+                    break;
+                }
+                final int cx = minChunkX + blast.chunkCursor / chunksZ;
+                final int cz = minChunkZ + blast.chunkCursor % chunksZ;
+                ++blast.chunkCursor;
+                ++examined;
+
+                // Don't load chunks just to look for entities.
+                if (blast.world.isChunkLoaded(cx, cz) == false)
+                    continue;
+                blast.chunkEntities = blast.world.getChunkAt(cx, cz).getEntities();
+                blast.entityCursor = 0;
+                continue;
+            }
+
+            if (blast.entityCursor >= blast.chunkEntities.length) {
+                // We've finished with this chunk.
+                blast.chunkEntities = null;
+                continue;
+            }
+
+            // Examine the next entity in the chunk.
+            final Entity entity = blast.chunkEntities[blast.entityCursor++];
+            ++examined;
+
+            // Only players and mobiles can burn, and the entity may have
+            // died since the chunk was listed.
+            if (!(entity instanceof LivingEntity) || entity.isDead())
+                continue;
+
+            // Measure the distance from the center of the blast.
+            final Location location = entity.getLocation();
+            final double dx = location.getX() - (blast.x + 0.5);
+            final double dy = location.getY() - (blast.y + 0.5);
+            final double dz = location.getZ() - (blast.z + 0.5);
+
+            // Skip entities outside of the blast radius.
+            if (dx * dx + dy * dy + dz * dz > radiusSquared)
+                continue;
+
+            // Look up the number of fire ticks for the entity.
+            final LivingEntity target = (LivingEntity) entity;
+            final int fireTicks = getPlugin().getSettings().getFireTicks(target);
+
+            if (fireTicks != 0) {
+                // Set the entity on fire at the end of the tick.
+                getPlugin().getFireTickBuffer().ignite(target, fireTicks);
+            }
+        }
+        return examined;
+    }
+
+    /**
+     * Sets fire to the next blocks of a blast.
+     * @param blast the {@link Blast} object
+     * @param budget the maximum number of blocks to examine
+     * @return the number of blocks examined
+     */
+    private int igniteBlocks(Blast blast, int budget) {
+        // The number of blocks we looked at.
+        int examined = 0;
+
+        while (examined < budget && blast.cursor < blast.offsets.length) {
+            // Find the next block in the blast.
+            final int x = blast.x + blast.offsets[blast.cursor++];
+            final int y = blast.y + blast.offsets[blast.cursor++];
+            final int z = blast.z + blast.offsets[blast.cursor++];
+            ++examined;
+
+            // Stay within the world, leaving room for a block beneath.
+            if (y < 1 || y > 127)
+                continue;
+
+            // Don't load chunks just to set them on fire.
+            if (blast.world.isChunkLoaded(x >> 4, z >> 4) == false)
+                continue;
+
+            // Fire can only be placed in air.
+            final Block block = blast.world.getBlockAt(x, y, z);
+            if (block.getType() != Material.AIR)
+                continue;
+
+            // Fire needs something beneath it to burn.
+            if (blast.world.getBlockTypeIdAt(x, y - 1, z) == Material.AIR.getId())
+                continue;
+
+            block.setType(Material.FIRE);
+            getPlugin().getTrace().record(ArrowTrace.Kind.BLOCK_IGNITED, x, y, z);
+        }
+        return examined;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void run() {
+        // The amount of work we may still do this tick.
+        int budget = getPlugin().getSettings().getIncendiaryBlocksPerTick();
+
+        while (budget > 0 && blasts.isEmpty() == false) {
+            // Work on the oldest blast first.
+            final Blast blast = blasts.peek();
+
+            if (blast.entitiesIgnited == false) {
+                // Work through the entities caught in the blast first.
+                budget -= igniteEntities(blast, budget);
+            } else {
+                // Work through as many blocks as the budget allows.
+                budget -= igniteBlocks(blast, budget);
+            }
+
+            if (blast.cursor >= blast.offsets.length) {
+                // The blast is finished.
+                blasts.poll();
+            }
+        }
+
+        if (blasts.isEmpty()) {
+            // There's nothing left to do; stop until the next impact.
+            cancel();
+        }
+    }
+
+    /**
+     * An incendiary impact which is still being processed.
+     */
+    private static class Blast {
+        /**
+         * Constructs a new {@link Blast} instance.
+         * @param location the point of impact
+         * @param radius the radius of the blast
+         */
+        Blast(Location location, int radius) {
+            this.world = location.getWorld();
+            this.x = location.getBlockX();
+            this.y = location.getBlockY();
+            this.z = location.getBlockZ();
+            this.radius = radius;
+            this.offsets = IgnitionMasks.getOffsets(radius);
+        }
+
+        /**
+         * The entities of the chunk being examined, or <code>null</code>
+         * between chunks.
+         */
+        Entity[] chunkEntities;
+
+        /**
+         * The index of the next chunk to examine for entities.
+         */
+        int chunkCursor = 0;
+
+        /**
+         * The index of the next offset to examine.
+         */
+        int cursor = 0;
+
+        /**
+         * The index of the next entity in {@link #chunkEntities}.
+         */
+        int entityCursor = 0;
+
+        /**
+         * Whether the entities caught in the blast have been ignited.
+         */
+        boolean entitiesIgnited = false;
+
+        /**
+         * The offsets of the blocks in the blast.
+         */
+        final int[] offsets;
+
+        /**
+         * The radius of the blast.
+         */
+        final int radius;
+
+        /**
+         * The {@link World} in which the blast occurred.
+         */
+        final World world;
+
+        /**
+         * The coordinates of the point of impact.
+         */
+        final int x, y, z;
+    }
+
+    /**
+     * The blasts waiting to be processed, oldest first.
+     */
+    private final Queue<Blast> blasts = new LinkedList<Blast>();
+
+    /**
+     * The {@link FlamingArrows} object
+     * @see #getPlugin()
+     */
+    private final FlamingArrows plugin;
+
+    /**
+     * The scheduler ID of the repeating task, or <code>-1</code>.
+     */
+    private int taskId = -1;
+}
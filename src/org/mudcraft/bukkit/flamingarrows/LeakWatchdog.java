@@ -0,0 +1,219 @@
+/**
+ * @file LeakWatchdog.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Keeps an eye on the collections owned by the plug-in.  At a fixed
+ * interval the watchdog prunes entries for entities and players which
+ * have gone away, then samples the size of each collection.  A collection
+ * which keeps growing sample after sample is reported to the logger, and
+ * the size of every collection is reported when the plug-in is disabled.
+ * <p>
+ * Sampling is off unless <code>watchdog.interval</code> is set, since it
+ * only ever logs.  The same probes are checked by the soak test, which
+ * fails if any collection outgrows its bound.
+ * @author Geoffrey Davis
+ */
+public class LeakWatchdog implements Runnable {
+    /**
+     * A collection watched by the {@link LeakWatchdog}.
+     */
+    public interface Probe {
+        /**
+         * Gets the name used for the collection in reports.
+         * @return the collection name
+         */
+        String getName();
+
+        /**
+         * Removes entries which are no longer needed.
+         * @return the number of entries removed
+         */
+        int prune();
+
+        /**
+         * Gets the number of entries in the collection.
+         * @return the collection size
+         */
+        int size();
+    }
+
+    /**
+     * Constructs a new {@link LeakWatchdog} instance.
+     * @param plugin the {@link FlamingArrows} object
+     */
+    public LeakWatchdog(FlamingArrows plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Adds a collection to be watched.
+     * @param probe the {@link Probe} object
+     */
+    public void addProbe(Probe probe) {
+        probes.add(new Watched(probe));
+    }
+
+    /**
+     * Gets the plug-in.
+     * @return the {@link FlamingArrows} object
+     */
+    public FlamingArrows getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Gets the watched collections.
+     * @return an unmodifiable {@link List} of {@link Probe}s, in the order
+     *      they were added
+     */
+    public List<Probe> getProbes() {
+        final List<Probe> result = new ArrayList<Probe>(probes.size());
+        for (Watched watched: probes) {
+            result.add(watched.probe);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Writes the size of every watched collection to the logger.
+     */
+    public void report() {
+        if (FlamingArrows.logger().isLoggable(Level.INFO) == false)
+            return;
+
+        for (Watched watched: probes) {
+            // Write an informational message to the logger.
+            FlamingArrows.logger().info(String.format(
+                    "[FlamingArrows] %s: %d entries (peak %d, %d pruned)",
+                    watched.probe.getName(), watched.probe.size(),
+                    watched.peak, watched.pruned));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void run() {
+        for (Watched watched: probes) {
+            // Prune before sampling so only real growth is counted.
+            watched.pruned += watched.probe.prune();
+            final int size = watched.probe.size();
+            watched.peak = Math.max(watched.peak, size);
+
+            if (size > watched.lastSize) {
+                // The collection grew again.
+                ++watched.growth;
+            } else {
+                // The collection held steady or shrank.
+                watched.growth = 0;
+                watched.reported = false;
+            }
+            watched.lastSize = size;
+
+            // Report collections which never stop growing, once per run
+            // of growth.
+            if (watched.growth >= GROWTH_SAMPLES && watched.reported == false) {
+                if (FlamingArrows.logger().isLoggable(Level.WARNING)) {
+                    // Write a warning message to the logger.
+                    FlamingArrows.logger().warning(String.format(
+                            "[FlamingArrows] %s has grown for %d samples in a row, now %d entries",
+                            watched.probe.getName(), watched.growth, size));
+                }
+                watched.reported = true;
+            }
+        }
+    }
+
+    /**
+     * Starts sampling at the interval configured in the settings.
+     */
+    public void start() {
+        // Forget the history of the last run.
+        for (Watched watched: probes) {
+            watched.growth = 0;
+            watched.lastSize = 0;
+            watched.reported = false;
+        }
+
+        // Convert the interval from seconds to ticks.
+        final long period = getPlugin().getSettings().getWatchdogInterval() * 20L;
+        if (period > 0) {
+            getPlugin().getServer().getScheduler().scheduleSyncRepeatingTask(
+                    getPlugin(), this, period, period);
+        }
+    }
+
+    /**
+     * A {@link Probe} and its sampling history.
+     */
+    private static class Watched {
+        /**
+         * Constructs a new {@link Watched} instance.
+         * @param probe the {@link Probe} object
+         */
+        Watched(Probe probe) {
+            this.probe = probe;
+        }
+
+        /**
+         * The number of samples in a row in which the collection grew.
+         */
+        int growth = 0;
+
+        /**
+         * The size of the collection at the last sample.
+         */
+        int lastSize = 0;
+
+        /**
+         * The largest size seen.
+         */
+        int peak = 0;
+
+        /**
+         * The watched collection.
+         */
+        final Probe probe;
+
+        /**
+         * The total number of entries pruned.
+         */
+        long pruned = 0;
+
+        /**
+         * Whether the current run of growth has been reported.
+         */
+        boolean reported = false;
+    }
+
+    /**
+     * The number of samples in a row a collection must grow before it is
+     * reported.
+     */
+    private static final int GROWTH_SAMPLES = 10;
+
+    /**
+     * The {@link FlamingArrows} object
+     * @see #getPlugin()
+     */
+    private final FlamingArrows plugin;
+
+    /**
+     * The watched collections.
+     */
+    private final List<Watched> probes = new ArrayList<Watched>();
+}
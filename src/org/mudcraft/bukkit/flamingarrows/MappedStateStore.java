@@ -0,0 +1,449 @@
+/**
+ * @file MappedStateStore.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.logging.Level;
+
+/**
+ * An {@link ArrowStateStore} kept in a memory-mapped file, so that every
+ * server process on the host which maps the same file sees the same
+ * state without any network calls.
+ * <p>
+ * The file is a small header followed by fixed-size slots, one per
+ * player, found by hashing the player's name and probing linearly.  A
+ * slot is never freed, so a probe always ends at the player's slot or at
+ * an empty one.  Each slot holds:
+ * <pre>
+ *   0  int   state: 0 if empty, else 1 | (arrow type code &lt;&lt; 1)
+ *   4  int   length of the name
+ *   8  byte  the lowercase name in UTF-8, up to 32 bytes
+ *  40  int   the counters
+ * </pre>
+ * Every field is a 4-byte aligned int, so a single store is never seen
+ * half-written by another process.  Every write, whether it claims a
+ * slot, sets a field or updates a counter, takes an exclusive
+ * {@link FileLock} on just that slot, so a plain store can never land in
+ * the middle of another process's read-modify-write; reads take no lock.
+ * Writes run on the main thread, so the lock is only tried a few times
+ * rather than waited for; if another process still holds it, the write
+ * is skipped and logged rather than made without the lock.
+ * @author Geoffrey Davis
+ */
+public class MappedStateStore implements ArrowStateStore {
+    /**
+     * Constructs a new {@link MappedStateStore} instance.
+     * @param file the shared state file
+     * @param slots the number of slots to create if the file is new
+     */
+    public MappedStateStore(File file, int slots) {
+        this.file = file;
+        this.slots = slots;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int addCounter(String name, int counter, int delta) {
+        final int slot = findSlot(name, true);
+        if (slot < 0)
+            return UNAVAILABLE;
+
+        // Lock the slot so another process can't interleave its update.
+        final FileLock lock = lockSlot(slot);
+        if (lock == null)
+            return UNAVAILABLE;
+        try {
+            final int value = buffer.getInt(slot + COUNTERS_OFFSET + counter * 4) + delta;
+            buffer.putInt(slot + COUNTERS_OFFSET + counter * 4, value);
+            return value;
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        if (channel == null)
+            return;
+
+        try {
+            // Push our changes out to the file and unmap it.
+            buffer.force();
+            channel.close();
+        } catch (IOException ex) {
+            warn(ex);
+        }
+        buffer = null;
+        channel = null;
+    }
+
+    /**
+     * Finds the slot of a player.
+     * @param name the lowercase player name
+     * @param create whether to claim an empty slot if the player has none
+     * @return the byte offset of the slot, or <code>-1</code> if the player
+     *      has no slot and one wasn't claimed
+     */
+    private int findSlot(String name, boolean create) {
+        final byte[] key = encode(name);
+        final int start = (name.hashCode() & 0x7FFFFFFF) % slots;
+
+        for (int i = 0; i < slots; ++i) {
+            final int slot = HEADER_SIZE + ((start + i) % slots) * SLOT_SIZE;
+
+            if (buffer.getInt(slot) != 0) {
+                // The slot is taken; check whether it's ours.
+                if (matches(slot, key))
+                    return slot;
+                continue;
+            }
+
+            // We've reached an empty slot, so the player has none.
+            if (create == false)
+                return -1;
+
+            // Claim the slot, unless another process beat us to it.
+            final FileLock lock = lockSlot(slot);
+            if (lock == null)
+                return -1;
+            try {
+                if (buffer.getInt(slot) == 0) {
+                    // Write the name before the state so that readers never
+                    // see a claimed slot without its name.
+                    buffer.putInt(slot + LENGTH_OFFSET, key.length);
+                    for (int j = 0; j < key.length; ++j) {
+                        buffer.put(slot + NAME_OFFSET + j, key[j]);
+                    }
+                    buffer.putInt(slot, CLAIMED);
+                    return slot;
+                }
+                if (matches(slot, key))
+                    return slot;
+            } finally {
+                unlock(lock);
+            }
+        }
+
+        if (full == false) {
+            // Only complain the first time.
+            full = true;
+            if (FlamingArrows.logger().isLoggable(Level.WARNING)) {
+                // Write a warning message to the logger.
+                FlamingArrows.logger().warning(
+                        "State file " + file + " is full; raise flaming-arrows.state.slots and delete it");
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ArrowType getArrowType(String name) {
+        final int slot = findSlot(name, false);
+        if (slot < 0)
+            return null;
+
+        // Decode the arrow type from the slot state.
+        final int code = buffer.getInt(slot) >>> 1;
+        return code > 0 && code <= ArrowType.values().length ?
+                ArrowType.values()[code - 1] : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getCounter(String name, int counter) {
+        final int slot = findSlot(name, false);
+        return slot >= 0 ? buffer.getInt(slot + COUNTERS_OFFSET + counter * 4) : 0;
+    }
+
+    /**
+     * Takes an exclusive lock on a single slot without blocking, trying
+     * again a few times if another process holds it.  Failures are logged,
+     * and the caller must skip its write.
+     * @param slot the byte offset of the slot
+     * @return the {@link FileLock}, or <code>null</code> if the lock could
+     *      not be taken
+     */
+    private FileLock lockSlot(int slot) {
+        try {
+            for (int attempt = 0; attempt < LOCK_ATTEMPTS; ++attempt) {
+                try {
+                    final FileLock lock = channel.tryLock(slot, SLOT_SIZE, false);
+                    if (lock != null)
+                        return lock;
+                } catch (OverlappingFileLockException ex) {
+                    // Another store in this process holds the slot.
+                }
+
+                // Other processes only hold a slot for a few stores.
+                Thread.yield();
+            }
+        } catch (IOException ex) {
+            warn(ex);
+            return null;
+        }
+
+        if (FlamingArrows.logger().isLoggable(Level.WARNING)) {
+            // Write a warning message to the logger.
+            FlamingArrows.logger().warning("Slot at byte " + slot + " of " +
+                    file + " is locked by another process; skipping a write");
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether a slot belongs to a player.
+     * @param slot the byte offset of the slot
+     * @param key the encoded player name
+     * @return <code>true</code> if the slot holds the name
+     */
+    private boolean matches(int slot, byte[] key) {
+        if (buffer.getInt(slot + LENGTH_OFFSET) != key.length)
+            return false;
+        for (int j = 0; j < key.length; ++j) {
+            if (buffer.get(slot + NAME_OFFSET + j) != key[j])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isPersistent() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void open() throws IOException {
+        // Make certain the folder holding the state file exists.
+        final File folder = file.getAbsoluteFile().getParentFile();
+        if (folder != null)
+            folder.mkdirs();
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        try {
+            // Lock the header while the file is checked or laid out, in case
+            // another server is starting at the same time.
+            final FileLock lock = channel.lock(0, HEADER_SIZE, false);
+            try {
+                if (raf.length() < HEADER_SIZE) {
+                    // Lay out a new, empty file.
+                    raf.setLength(HEADER_SIZE + (long) slots * SLOT_SIZE);
+                    raf.seek(0);
+                    raf.writeInt(MAGIC);
+                    raf.writeInt(slots);
+                } else {
+                    // Use the layout of the existing file.
+                    raf.seek(0);
+                    if (raf.readInt() != MAGIC)
+                        throw new IOException(file + " is not a Flaming Arrows! state file");
+                    slots = raf.readInt();
+                    if (slots <= 0 || raf.length() < HEADER_SIZE + (long) slots * SLOT_SIZE)
+                        throw new IOException(file + " is truncated");
+                }
+            } finally {
+                lock.release();
+            }
+
+            // Map the whole file; it never changes size once laid out.
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) slots * SLOT_SIZE);
+        } catch (IOException ex) {
+            channel.close();
+            channel = null;
+            throw ex;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setArrowType(String name, ArrowType type) {
+        final int slot = findSlot(name, true);
+        if (slot < 0)
+            return;
+
+        // Lock the slot so the store can't land in the middle of another
+        // process's update.
+        final FileLock lock = lockSlot(slot);
+        if (lock == null)
+            return;
+        try {
+            buffer.putInt(slot, CLAIMED | ((type == null ? 0 : type.ordinal() + 1) << 1));
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setCounter(String name, int counter, int value) {
+        final int slot = findSlot(name, true);
+        if (slot < 0)
+            return;
+
+        // Lock the slot so the store can't land in the middle of another
+        // process's update.
+        final FileLock lock = lockSlot(slot);
+        if (lock == null)
+            return;
+        try {
+            buffer.putInt(slot + COUNTERS_OFFSET + counter * 4, value);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Counts the claimed slots, so this visits every slot in the file.
+     */
+    public int size() {
+        int count = 0;
+        for (int i = 0; i < slots; ++i) {
+            if (buffer.getInt(HEADER_SIZE + i * SLOT_SIZE) != 0)
+                ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Releases a slot lock.
+     * @param lock the {@link FileLock}, or <code>null</code>
+     */
+    private void unlock(FileLock lock) {
+        if (lock == null)
+            return;
+
+        try {
+            lock.release();
+        } catch (IOException ex) {
+            warn(ex);
+        }
+    }
+
+    /**
+     * Encodes a player name for storage in a slot.
+     * @param name the lowercase player name
+     * @return the name in UTF-8, cut to {@link #MAX_NAME} bytes
+     */
+    private static byte[] encode(String name) {
+        try {
+            final byte[] bytes = name.getBytes("UTF-8");
+            if (bytes.length <= MAX_NAME)
+                return bytes;
+            final byte[] cut = new byte[MAX_NAME];
+            System.arraycopy(bytes, 0, cut, 0, MAX_NAME);
+            return cut;
+        } catch (UnsupportedEncodingException ex) {
+            // Every JVM supports UTF-8.
+            throw new RuntimeException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Writes a warning message to the logger.
+     * @param ex the {@link IOException} to report
+     */
+    private static void warn(IOException ex) {
+        if (FlamingArrows.logger().isLoggable(Level.WARNING)) {
+            // Write a warning message to the logger.
+            FlamingArrows.logger().warning(ex.getMessage());
+        }
+    }
+
+    /**
+     * The state of a claimed slot with no arrow type.
+     */
+    private static final int CLAIMED = 1;
+
+    /**
+     * The offset of the counters within a slot.
+     */
+    private static final int COUNTERS_OFFSET = 40;
+
+    /**
+     * The size of the file header: the magic number and slot count.
+     */
+    private static final int HEADER_SIZE = 64;
+
+    /**
+     * The offset of the name length within a slot.
+     */
+    private static final int LENGTH_OFFSET = 4;
+
+    /**
+     * The number of times a slot lock is tried before a write is skipped.
+     */
+    private static final int LOCK_ATTEMPTS = 16;
+
+    /**
+     * Identifies a Flaming Arrows! state file.
+     */
+    private static final int MAGIC = 0x46415331;
+
+    /**
+     * The longest name a slot can hold, in bytes.
+     */
+    private static final int MAX_NAME = 32;
+
+    /**
+     * The offset of the name within a slot.
+     */
+    private static final int NAME_OFFSET = 8;
+
+    /**
+     * The size of a slot, in bytes.
+     */
+    private static final int SLOT_SIZE = COUNTERS_OFFSET + COUNTERS * 4;
+
+    /**
+     * The mapped file, or <code>null</code> if it isn't open.
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * The channel of the state file, or <code>null</code> if it isn't open.
+     */
+    private FileChannel channel;
+
+    /**
+     * The shared state file.
+     */
+    private final File file;
+
+    /**
+     * Whether we've warned that the file has no free slots.
+     */
+    private boolean full = false;
+
+    /**
+     * The number of slots in the file.
+     */
+    private int slots;
+}
@@ -0,0 +1,159 @@
+/**
+ * @file MemoryStateStore.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An {@link ArrowStateStore} held in the server's memory.  Arrow types
+ * and counters are saved through a {@link ToggleLog} if one is given.
+ * @author Geoffrey Davis
+ */
+public class MemoryStateStore implements ArrowStateStore {
+    /**
+     * Constructs a new {@link MemoryStateStore} instance.
+     * @param toggleLog the {@link ToggleLog} used to save state, or
+     *      <code>null</code> if they aren't saved
+     */
+    public MemoryStateStore(ToggleLog toggleLog) {
+        this.toggleLog = toggleLog;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int addCounter(String name, int counter, int delta) {
+        final int[] values = getCounters(name);
+        values[counter] += delta;
+
+        if (toggleLog != null) {
+            // Save the change in the background.
+            toggleLog.appendCounter(name, counter, values[counter]);
+        }
+        return values[counter];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        types.clear();
+        counters.clear();
+
+        if (toggleLog != null) {
+            // Write out the last of the toggle log.
+            toggleLog.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ArrowType getArrowType(String name) {
+        return types.get(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getCounter(String name, int counter) {
+        final int[] values = counters.get(name);
+        return values != null ? values[counter] : 0;
+    }
+
+    /**
+     * Gets a player's counters, creating them if necessary.
+     * @param name the lowercase player name
+     * @return the player's counters
+     */
+    private int[] getCounters(String name) {
+        int[] values = counters.get(name);
+        if (values == null) {
+            values = new int[COUNTERS];
+            counters.put(name, values);
+        }
+        return values;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The state is only saved if there's a toggle log.
+     */
+    public boolean isPersistent() {
+        return toggleLog != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void open() throws IOException {
+        types.clear();
+        counters.clear();
+
+        if (toggleLog != null) {
+            // Read the toggle log in one pass and start its writer.
+            types.putAll(toggleLog.open());
+            counters.putAll(toggleLog.getCounters());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setArrowType(String name, ArrowType type) {
+        if (type == null) {
+            types.remove(name);
+        } else {
+            types.put(name, type);
+        }
+
+        if (toggleLog != null) {
+            // Save the change in the background.
+            toggleLog.append(name, type);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setCounter(String name, int counter, int value) {
+        getCounters(name)[counter] = value;
+
+        if (toggleLog != null) {
+            // Save the change in the background.
+            toggleLog.appendCounter(name, counter, value);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size() {
+        return types.size();
+    }
+
+    /**
+     * Maps lowercase player names to their counters.
+     */
+    private final Map<String, int[]> counters = new HashMap<String, int[]>();
+
+    /**
+     * The log used to save state, or <code>null</code>.
+     */
+    private final ToggleLog toggleLog;
+
+    /**
+     * Maps lowercase player names to their {@link ArrowType}.
+     */
+    private final Map<String, ArrowType> types = new HashMap<String, ArrowType>();
+}
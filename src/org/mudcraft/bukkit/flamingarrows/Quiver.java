@@ -0,0 +1,313 @@
+/**
+ * @file Quiver.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.util.HashMap;
+import java.util.logging.Level;
+
+import org.bukkit.Material;
+import org.bukkit.command.CommandSender;
+import org.bukkit.craftbukkit.entity.CraftPlayer;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Holds the arrows and flint &amp; steel charges players have loaded into
+ * their virtual quiver.  The quiver lives in two counters of the
+ * {@link ArrowStateStore}, so firing a flaming arrow from it only
+ * decrements two integers and never touches the player's inventory.
+ * Players fill and empty their quiver in bulk with the
+ * <code>/quiver</code> command.
+ * <p>
+ * The quiver can only be loaded when the state store is saved across
+ * restarts, so that nothing a player puts in it is lost.  Items only
+ * change hands once the counters have been updated, so a store which
+ * can't take the change never costs a player their items.  Players can
+ * still see and unload their quiver after it has been disabled.
+ * @author Geoffrey Davis
+ */
+public class Quiver {
+    /**
+     * Constructs a new {@link Quiver} instance.
+     * @param plugin the {@link FlamingArrows} object
+     */
+    public Quiver(FlamingArrows plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Gets the number of arrows in a {@link Player}'s quiver.
+     * @param player the {@link Player} object
+     * @return the number of arrows
+     */
+    public int getArrows(Player player) {
+        return getStateStore().getCounter(player.getName().toLowerCase(),
+                ArrowStateStore.QUIVER_ARROWS);
+    }
+
+    /**
+     * Gets the number of flint &amp; steel charges in a {@link Player}'s
+     * quiver.
+     * @param player the {@link Player} object
+     * @return the number of charges
+     */
+    public int getCharges(Player player) {
+        return getStateStore().getCounter(player.getName().toLowerCase(),
+                ArrowStateStore.QUIVER_CHARGES);
+    }
+
+    /**
+     * Gets the plug-in.
+     * @return the {@link FlamingArrows} object
+     */
+    public FlamingArrows getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Gets the store which holds the quiver counters.
+     * @return the {@link ArrowStateStore} object
+     */
+    private ArrowStateStore getStateStore() {
+        return getPlugin().getArrowManager().getStateStore();
+    }
+
+    /**
+     * Moves arrows and flint &amp; steel from a {@link Player}'s inventory
+     * into their quiver, up to the quiver's capacity.
+     * @param player the {@link Player} object
+     * @return <code>false</code> if the quiver could not be updated
+     */
+    public boolean load(Player player) {
+        final String name = player.getName().toLowerCase();
+        final Inventory inventory = player.getInventory();
+
+        // Count the arrows the player is carrying.
+        int carried = 0;
+        for (ItemStack itemStack: inventory.getContents()) {
+            if (itemStack != null && itemStack.getType() == Material.ARROW)
+                carried += itemStack.getAmount();
+        }
+
+        // Move as many as will fit into the quiver.
+        final int arrows = Math.min(carried,
+                getPlugin().getSettings().getQuiverMaxArrows() - getArrows(player));
+        if (arrows > 0) {
+            // Credit the quiver before taking the arrows.
+            if (getStateStore().addCounter(name, ArrowStateStore.QUIVER_ARROWS,
+                    arrows) == ArrowStateStore.UNAVAILABLE)
+                return false;
+            inventory.removeItem(new ItemStack(Material.ARROW, arrows));
+        }
+
+        // Pick out whole flint & steel item stacks while they fit.
+        final int charges = getCharges(player);
+        int loaded = 0;
+        final int maxCharges = getPlugin().getSettings().getQuiverMaxCharges();
+        final ItemStack[] contents = inventory.getContents();
+        final boolean[] taken = new boolean[contents.length];
+        for (int slot = 0; slot < contents.length; ++slot) {
+            final ItemStack itemStack = contents[slot];
+            if (itemStack == null ||
+                itemStack.getType() != Material.FLINT_AND_STEEL ||
+                itemStack.getDurability() >= 64)
+                continue;
+
+            // The charges left in the item stack.
+            final int stackCharges = (64 - itemStack.getDurability()) +
+                (itemStack.getAmount() - 1) * 64;
+            if (charges + loaded + stackCharges > maxCharges)
+                continue;
+
+            taken[slot] = true;
+            loaded += stackCharges;
+        }
+        if (loaded > 0) {
+            // Credit the quiver, then take the item stacks.
+            if (getStateStore().addCounter(name, ArrowStateStore.QUIVER_CHARGES,
+                    loaded) == ArrowStateStore.UNAVAILABLE) {
+                ((CraftPlayer) player).updateInventory();
+                return false;
+            }
+            for (int slot = 0; slot < taken.length; ++slot) {
+                if (taken[slot])
+                    inventory.setItem(slot, null);
+            }
+        }
+
+        // Update the player's inventory.
+        ((CraftPlayer) player).updateInventory();
+        return true;
+    }
+
+    /**
+     * Handles the <code>/quiver</code> command.
+     * @param sender the {@link CommandSender} object
+     * @param args the command arguments
+     * @return <code>false</code> if the command was used incorrectly
+     */
+    public boolean onCommand(CommandSender sender, String[] args) {
+        // Only players have a quiver.
+        if (!(sender instanceof Player)) {
+            sender.sendMessage("*Flaming Arrows* Only players have a quiver.");
+            return true;
+        }
+        final Player player = (Player) sender;
+
+        if (!FlamingArrows.hasPermission(player, "FlamingArrows.ignite"))
+            return true;
+
+        if (args.length > 1)
+            return false;
+        if (args.length == 1) {
+            if (args[0].equalsIgnoreCase("load")) {
+                // A disabled quiver can still be emptied, but not filled.
+                if (getPlugin().getSettings().isQuiverEnabled() == false) {
+                    player.sendMessage("*Flaming Arrows* The quiver is disabled on this server.");
+                    return true;
+                }
+
+                // Don't take items the quiver would lose on a restart.
+                if (getStateStore().isPersistent() == false) {
+                    player.sendMessage("*Flaming Arrows* The quiver can't be loaded while persistence is disabled.");
+                    return true;
+                }
+                if (load(player) == false)
+                    player.sendMessage(UNAVAILABLE_MESSAGE);
+            } else if (args[0].equalsIgnoreCase("unload")) {
+                if (unload(player) == false)
+                    player.sendMessage(UNAVAILABLE_MESSAGE);
+            } else {
+                return false;
+            }
+        }
+
+        // Show the player what's in their quiver.
+        player.sendMessage("*Flaming Arrows* Your quiver holds " +
+                getArrows(player) + " arrows and " + getCharges(player) +
+                " flint & steel charges.");
+        return true;
+    }
+
+    /**
+     * Takes one arrow and a number of flint &amp; steel charges from a
+     * {@link Player}'s quiver.  The caller must already have checked that
+     * the quiver holds enough.
+     * @param player the {@link Player} object
+     * @param charges the number of charges to take
+     */
+    public void take(Player player, int charges) {
+        final String name = player.getName().toLowerCase();
+
+        // Subtract in a single step each so no concurrent change is lost.
+        getStateStore().addCounter(name, ArrowStateStore.QUIVER_ARROWS, -1);
+        getStateStore().addCounter(name, ArrowStateStore.QUIVER_CHARGES,
+                -charges);
+    }
+
+    /**
+     * Moves the arrows and flint &amp; steel in a {@link Player}'s quiver
+     * back into their inventory.  Whatever doesn't fit stays in the
+     * quiver.
+     * @param player the {@link Player} object
+     * @return <code>false</code> if the quiver could not be updated
+     */
+    public boolean unload(Player player) {
+        final String name = player.getName().toLowerCase();
+        final Inventory inventory = player.getInventory();
+
+        // Take the arrows out of the quiver before handing them back, and
+        // return any which don't fit.
+        final int arrows = getArrows(player);
+        if (arrows > 0) {
+            if (getStateStore().addCounter(name, ArrowStateStore.QUIVER_ARROWS,
+                    -arrows) == ArrowStateStore.UNAVAILABLE)
+                return false;
+            final int leftovers = countLeftovers(inventory.addItem(
+                    new ItemStack(Material.ARROW, arrows)));
+            if (leftovers > 0)
+                refund(name, ArrowStateStore.QUIVER_ARROWS, leftovers);
+        }
+
+        // Likewise the charges, handed back as flint & steel one item at a
+        // time since they don't stack.
+        final int quiverCharges = getCharges(player);
+        if (quiverCharges > 0) {
+            if (getStateStore().addCounter(name, ArrowStateStore.QUIVER_CHARGES,
+                    -quiverCharges) == ArrowStateStore.UNAVAILABLE) {
+                ((CraftPlayer) player).updateInventory();
+                return false;
+            }
+            int charges = quiverCharges;
+            while (charges > 0) {
+                final int itemCharges = Math.min(charges, 64);
+                final ItemStack itemStack = new ItemStack(Material.FLINT_AND_STEEL,
+                        1, (short) (64 - itemCharges));
+                if (countLeftovers(inventory.addItem(itemStack)) > 0)
+                    break;
+                charges -= itemCharges;
+            }
+            if (charges > 0)
+                refund(name, ArrowStateStore.QUIVER_CHARGES, charges);
+        }
+
+        // Update the player's inventory.
+        ((CraftPlayer) player).updateInventory();
+        return true;
+    }
+
+    /**
+     * Counts the items which didn't fit into an inventory.
+     * @param leftovers the result of {@link Inventory#addItem(ItemStack...)}
+     * @return the number of items left over
+     */
+    private static int countLeftovers(HashMap<Integer, ItemStack> leftovers) {
+        int count = 0;
+        for (ItemStack itemStack: leftovers.values()) {
+            count += itemStack.getAmount();
+        }
+        return count;
+    }
+
+    /**
+     * Puts items which didn't fit into a player's inventory back into
+     * their quiver.
+     * @param name the lowercase player name
+     * @param counter the quiver counter
+     * @param amount the number of items or charges
+     */
+    private void refund(String name, int counter, int amount) {
+        if (getStateStore().addCounter(name, counter, amount) !=
+                ArrowStateStore.UNAVAILABLE)
+            return;
+
+        if (FlamingArrows.logger().isLoggable(Level.WARNING)) {
+            // Write a warning message to the logger.
+            FlamingArrows.logger().warning("Could not return " + amount +
+                    (counter == ArrowStateStore.QUIVER_ARROWS ?
+                            " arrows" : " flint & steel charges") +
+                    " to the quiver of " + name);
+        }
+    }
+
+    /**
+     * Tells a player their quiver could not be updated.
+     */
+    private static final String UNAVAILABLE_MESSAGE =
+        "*Flaming Arrows* Your quiver is unavailable right now.";
+
+    /**
+     * The {@link FlamingArrows} object
+     * @see #getPlugin()
+     */
+    private final FlamingArrows plugin;
+}
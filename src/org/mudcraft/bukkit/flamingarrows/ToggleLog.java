@@ -0,0 +1,664 @@
+/**
+ * @file ToggleLog.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+
+/**
+ * An append-only log of the arrow type each player last selected and of
+ * their counters.  The main thread only ever queues records; a background
+ * thread writes them in batches, syncing the file once per batch, and
+ * rewrites the log from scratch once it holds many more records than
+ * there are live values.
+ * <p>
+ * Each record starts with a single byte: <code>0</code> for disabled, one
+ * more than the {@link ArrowType} ordinal, or {@link #COUNTER_OP} plus
+ * the counter index.  The lowercase player name follows, and counter
+ * records end with the counter's new value.
+ * <p>
+ * Compaction never leaves the log missing: the rewritten log is synced
+ * before it replaces the old one, and a compaction interrupted part way
+ * through is finished or rolled back the next time the log is read.  A
+ * record cut short by a crash is trimmed off before anything more is
+ * appended.  Only one writer thread ever works on a log file at a time;
+ * closing a log waits for its writer to finish, and a log can't be opened
+ * while an earlier writer of the same file is still running.
+ * @author Geoffrey Davis
+ */
+public class ToggleLog implements Runnable {
+    /**
+     * Constructs a new {@link ToggleLog} instance.
+     * @param file the log file
+     */
+    public ToggleLog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Queues a record for writing.  Never blocks.
+     * @param name the player's name
+     * @param type the {@link ArrowType}, or <code>null</code> if flaming
+     *      arrows were disabled
+     */
+    public void append(String name, ArrowType type) {
+        queue.offer(new Record(name.toLowerCase(), type, -1, 0));
+    }
+
+    /**
+     * Queues a counter record for writing.  Never blocks.
+     * @param name the player's name
+     * @param counter the counter index, less than
+     *      {@link ArrowStateStore#COUNTERS}
+     * @param value the new value of the counter
+     */
+    public void appendCounter(String name, int counter, int value) {
+        queue.offer(new Record(name.toLowerCase(), null, counter, value));
+    }
+
+    /**
+     * Writes any queued records and stops the writer thread.  Waits for
+     * the writer to finish, including any compaction it's part way
+     * through.
+     */
+    public void close() {
+        if (writer == null)
+            return;
+
+        // Tell the writer to stop once it reaches the end of the queue.
+        queue.offer(STOP);
+
+        // Wait for it, even if we're interrupted along the way.
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        writer = null;
+    }
+
+    /**
+     * Gets the counters read from the log by {@link #open()}.
+     * @return a {@link Map} of lowercase player names to their counters
+     */
+    public Map<String, int[]> getCounters() {
+        return counters;
+    }
+
+    /**
+     * Reads the log in one sequential pass and starts the writer thread.
+     * The counters read from the log are available from
+     * {@link #getCounters()}.
+     * @return a {@link Map} of lowercase player names to their
+     *      {@link ArrowType}; players who disabled flaming arrows are absent
+     * @throws IOException if an earlier writer of the same file is still
+     *      running
+     */
+    public Map<String, ArrowType> open() throws IOException {
+        // Claim the file for our writer before touching it.
+        final Thread thread = new Thread(this, "FlamingArrows-ToggleLog");
+        if (WRITERS.putIfAbsent(file.getAbsoluteFile(), thread) != null)
+            throw new IOException(file + " is still being written by an earlier writer");
+
+        // Count the records as they're read.
+        records = 0;
+        liveCounters.clear();
+        final Map<String, ArrowType> states = read();
+
+        // Hand the counters over before the writer starts changing them.
+        counters = new HashMap<String, int[]>();
+        for (Map.Entry<String, int[]> entry: liveCounters.entrySet()) {
+            counters.put(entry.getKey(), entry.getValue().clone());
+        }
+
+        // The writer starts with the same view of the log.
+        live.clear();
+        live.putAll(states);
+
+        // Start the writer thread.
+        writer = thread;
+        writer.setDaemon(true);
+        writer.start();
+        return states;
+    }
+
+    /**
+     * Reads the records from the log file.  A record cut short by a crash,
+     * or a corrupt record, ends the log and is truncated away along with
+     * anything after it.
+     * @return a {@link Map} of lowercase player names to their
+     *      {@link ArrowType}
+     */
+    private Map<String, ArrowType> read() {
+        final Map<String, ArrowType> states = new HashMap<String, ArrowType>();
+        recover();
+        if (file.exists() == false)
+            return states;
+
+        // The length of the log up to the end of the last good record.
+        long goodLength = 0;
+
+        DataInputStream in = null;
+        CountingInputStream counter = null;
+        try {
+            // Create a DataInputStream object which counts what it reads.
+            counter = new CountingInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            in = new DataInputStream(counter);
+
+            while (true) {
+                // Read the next record.
+                final int op = in.readUnsignedByte();
+                final String name = in.readUTF();
+
+                if (op >= COUNTER_OP && op < COUNTER_OP + ArrowStateStore.COUNTERS) {
+                    // A counter changed.
+                    final int value = in.readInt();
+                    getLiveCounters(name)[op - COUNTER_OP] = value;
+                } else if (op == 0) {
+                    // The player disabled flaming arrows.
+                    states.remove(name);
+                } else if (op <= ArrowType.values().length) {
+                    // The player selected a type of arrow.
+                    states.put(name, ArrowType.values()[op - 1]);
+                } else {
+                    throw new IOException("Corrupt record in " + file);
+                }
+
+                // The whole record was read.
+                goodLength = counter.getCount();
+                ++records;
+            }
+        } catch (EOFException ex) {
+            // We've reached the end of the log.
+        } catch (IOException ex) {
+            if (FlamingArrows.logger().isLoggable(Level.WARNING)) {
+                // Write a warning message to the logger.
+                FlamingArrows.logger().warning(ex.getMessage());
+            }
+        } finally {
+            if (in != null) {
+                try {
+                    // Close the input stream.
+                    in.close();
+                } catch (IOException ex) {
+                    // Nothing more we can do.
+                }
+            }
+        }
+
+        if (goodLength < file.length()) {
+            // Trim the torn or corrupt tail so new records follow the last
+            // good one.
+            truncate(goodLength);
+        }
+        return states;
+    }
+
+    /**
+     * Finishes or rolls back a compaction which was interrupted by a
+     * crash.  A missing log is replaced by the rewritten log if it was
+     * complete, or else by the backup of the old log; leftover temporary
+     * and backup files are then removed.
+     */
+    private void recover() {
+        final File tempFile = getTempFile();
+        final File backupFile = getBackupFile();
+
+        if (file.exists() == false && tempFile.exists()) {
+            // The rewritten log is only renamed once it has been synced, so
+            // it's complete if the log itself is missing.
+            if (tempFile.renameTo(file) == false)
+                warn("Could not recover " + file + " from " + tempFile);
+        }
+        if (file.exists() == false && backupFile.exists()) {
+            // Fall back to the old log.
+            if (backupFile.renameTo(file) == false)
+                warn("Could not recover " + file + " from " + backupFile);
+        }
+
+        // Whatever is left over is stale.
+        if (file.exists()) {
+            tempFile.delete();
+            backupFile.delete();
+        }
+    }
+
+    /**
+     * Truncates the log file.
+     * @param length the new length of the file
+     */
+    private void truncate(long length) {
+        warn("Truncating " + file + " to the last good record at byte "
+                + length);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(length);
+            raf.getFD().sync();
+        } catch (IOException ex) {
+            warn(ex.getMessage());
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ex) {
+                    // Nothing more we can do.
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the log so it holds one record per enabled player.  Runs on
+     * the writer thread.
+     * @throws IOException if the log could not be rewritten
+     */
+    private void compact() throws IOException {
+        // Write the live records to a temporary file.
+        final File tempFile = getTempFile();
+        final FileOutputStream fos = new FileOutputStream(tempFile);
+        try {
+            final DataOutputStream temp =
+                new DataOutputStream(new BufferedOutputStream(fos));
+            for (Map.Entry<String, ArrowType> entry: live.entrySet()) {
+                write(temp, new Record(entry.getKey(), entry.getValue(), -1, 0));
+            }
+            for (Map.Entry<String, int[]> entry: liveCounters.entrySet()) {
+                final int[] values = entry.getValue();
+                for (int i = 0; i < values.length; ++i) {
+                    if (values[i] != 0)
+                        write(temp, new Record(entry.getKey(), null, i, values[i]));
+                }
+            }
+            temp.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+
+        // Swap the temporary file in place of the log.  Renaming over the
+        // log replaces it in one step where the platform allows it.
+        closeOutput();
+        if (tempFile.renameTo(file) == false) {
+            // Otherwise move the old log aside first, so that there is
+            // always a complete log to recover from.
+            final File backupFile = getBackupFile();
+            backupFile.delete();
+            if (file.renameTo(backupFile) == false)
+                throw new IOException("Could not back up " + file);
+            if (tempFile.renameTo(file) == false) {
+                // Put the old log back.
+                backupFile.renameTo(file);
+                throw new IOException("Could not replace " + file);
+            }
+            backupFile.delete();
+        }
+        records = countLiveRecords();
+    }
+
+    /**
+     * Counts the records a compacted log would hold.
+     * @return one record per enabled player and per non-zero counter
+     */
+    private int countLiveRecords() {
+        int count = live.size();
+        for (int[] values: liveCounters.values()) {
+            for (int value: values) {
+                if (value != 0)
+                    ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Closes the log file, if it's open.  Runs on the writer thread.
+     * @throws IOException if the log could not be closed
+     */
+    private void closeOutput() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Writes a batch of records and syncs the log file.  Runs on the
+     * writer thread.
+     * @param batch the {@link Record}s to write
+     * @throws IOException if the records could not be written
+     */
+    private void flush(List<Record> batch) throws IOException {
+        if (out == null) {
+            // Open the log file for appending.
+            fileOut = new FileOutputStream(file, true);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        }
+
+        for (Record record: batch) {
+            // Write the record and track the player's state.
+            write(out, record);
+            if (record.counter >= 0) {
+                getLiveCounters(record.name)[record.counter] = record.value;
+            } else if (record.type == null) {
+                live.remove(record.name);
+            } else {
+                live.put(record.name, record.type);
+            }
+            ++records;
+        }
+
+        // Sync once for the whole batch.
+        out.flush();
+        fileOut.getFD().sync();
+
+        // Rewrite the log once it's mostly stale records.
+        if (records > COMPACT_THRESHOLD && records > countLiveRecords() * 4)
+            compact();
+    }
+
+    /**
+     * Gets the file the old log is moved to while it's being replaced.
+     * @return the backup {@link File}
+     */
+    private File getBackupFile() {
+        return new File(file.getPath() + ".bak");
+    }
+
+    /**
+     * Gets a player's counters as recorded in the log, creating them if
+     * necessary.
+     * @param name the lowercase player name
+     * @return the player's counters
+     */
+    private int[] getLiveCounters(String name) {
+        int[] values = liveCounters.get(name);
+        if (values == null) {
+            values = new int[ArrowStateStore.COUNTERS];
+            liveCounters.put(name, values);
+        }
+        return values;
+    }
+
+    /**
+     * Gets the file a compacted log is written to before it replaces the
+     * log.
+     * @return the temporary {@link File}
+     */
+    private File getTempFile() {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void run() {
+        final List<Record> batch = new ArrayList<Record>();
+        boolean stopping = false;
+
+        while (stopping == false) {
+            try {
+                // Wait for a record, then take whatever else has queued up.
+                batch.add(queue.take());
+                queue.drainTo(batch);
+            } catch (InterruptedException ex) {
+                stopping = true;
+            }
+
+            // Stop after this batch if we've been asked to.
+            stopping |= batch.remove(STOP);
+
+            try {
+                if (batch.isEmpty() == false)
+                    flush(batch);
+            } catch (IOException ex) {
+                if (FlamingArrows.logger().isLoggable(Level.WARNING)) {
+                    // Write a warning message to the logger.
+                    FlamingArrows.logger().warning(ex.getMessage());
+                }
+            }
+            batch.clear();
+        }
+
+        try {
+            closeOutput();
+        } catch (IOException ex) {
+            // Nothing more we can do.
+        }
+
+        // Let the file be opened again.
+        WRITERS.remove(file.getAbsoluteFile(), Thread.currentThread());
+    }
+
+    /**
+     * Writes a warning message to the logger.
+     * @param message the message
+     */
+    private static void warn(String message) {
+        if (FlamingArrows.logger().isLoggable(Level.WARNING)) {
+            // Write a warning message to the logger.
+            FlamingArrows.logger().warning(message);
+        }
+    }
+
+    /**
+     * Writes a single record.
+     * @param out the {@link DataOutputStream} to write to
+     * @param record the {@link Record} to write
+     * @throws IOException if the record could not be written
+     */
+    private static void write(DataOutputStream out, Record record)
+            throws IOException {
+        if (record.counter >= 0) {
+            out.writeByte(COUNTER_OP + record.counter);
+            out.writeUTF(record.name);
+            out.writeInt(record.value);
+        } else {
+            out.writeByte(record.type == null ? 0 : record.type.ordinal() + 1);
+            out.writeUTF(record.name);
+        }
+    }
+
+    /**
+     * An {@link InputStream} which counts the bytes read through it, so
+     * the end of the last complete record is known.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        /**
+         * Constructs a new {@link CountingInputStream} instance.
+         * @param in the {@link InputStream} to read from
+         */
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        /**
+         * Gets the number of bytes read so far.
+         * @return the byte count
+         */
+        long getCount() {
+            return count;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0)
+                ++count;
+            return b;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        /**
+         * The number of bytes read so far.
+         * @see #getCount()
+         */
+        private long count = 0;
+    }
+
+    /**
+     * A change to a player's arrow type or to one of their counters.
+     */
+    private static class Record {
+        /**
+         * Constructs a new {@link Record} instance.
+         * @param name the lowercase player name
+         * @param type the {@link ArrowType}, or <code>null</code>
+         * @param counter the counter index, or <code>-1</code> if the
+         *      arrow type changed
+         * @param value the new value of the counter
+         */
+        Record(String name, ArrowType type, int counter, int value) {
+            this.name = name;
+            this.type = type;
+            this.counter = counter;
+            this.value = value;
+        }
+
+        /**
+         * The counter index, or <code>-1</code> if the arrow type changed.
+         */
+        final int counter;
+
+        /**
+         * The lowercase player name.
+         */
+        final String name;
+
+        /**
+         * The {@link ArrowType}, or <code>null</code> if disabled.
+         */
+        final ArrowType type;
+
+        /**
+         * The new value of the counter.
+         */
+        final int value;
+    }
+
+    /**
+     * The number of records the log must hold before it is compacted.
+     */
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    /**
+     * Queued to tell the writer thread to stop.
+     */
+    private static final Record STOP = new Record("", null, -1, 0);
+
+    /**
+     * The op of the first counter's records.
+     */
+    private static final int COUNTER_OP = 0x80;
+
+    /**
+     * The writer thread working on each log file, by absolute path.
+     */
+    private static final ConcurrentMap<File, Thread> WRITERS =
+        new ConcurrentHashMap<File, Thread>();
+
+    /**
+     * The counters read by {@link #open()}.
+     * @see #getCounters()
+     */
+    private Map<String, int[]> counters = new HashMap<String, int[]>();
+
+    /**
+     * The log file.
+     */
+    private final File file;
+
+    /**
+     * The stream underneath {@link #out}, kept so it can be synced.
+     */
+    private FileOutputStream fileOut;
+
+    /**
+     * The state of each enabled player as recorded in the log.  Only used
+     * by the writer thread once it has started.
+     */
+    private final Map<String, ArrowType> live = new HashMap<String, ArrowType>();
+
+    /**
+     * The counters of each player as recorded in the log.  Only used by
+     * the writer thread once it has started.
+     */
+    private final Map<String, int[]> liveCounters = new HashMap<String, int[]>();
+
+    /**
+     * The log file opened for appending, or <code>null</code>.
+     */
+    private DataOutputStream out;
+
+    /**
+     * The records waiting to be written.
+     */
+    private final BlockingQueue<Record> queue =
+        new LinkedBlockingQueue<Record>();
+
+    /**
+     * The number of records in the log file.
+     */
+    private int records = 0;
+
+    /**
+     * The writer thread, or <code>null</code> if the log isn't open.
+     */
+    private Thread writer;
+}
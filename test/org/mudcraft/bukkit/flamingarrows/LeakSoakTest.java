@@ -0,0 +1,656 @@
+/**
+ * @file LeakSoakTest.java
+ * 
+ * Copyright (C) 2011 MUDCraft.org
+ * All Rights Reserved.
+ *
+ * @author Geoffrey Davis
+ *
+ * $Id$
+ */
+package org.mudcraft.bukkit.flamingarrows;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.Arrow;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Pig;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.entity.EntityDamageByProjectileEvent;
+import org.bukkit.event.entity.EntityDamageEvent;
+import org.bukkit.event.entity.EntityDamageEvent.DamageCause;
+import org.bukkit.event.entity.EntityDeathEvent;
+import org.bukkit.event.entity.EntityListener;
+import org.bukkit.event.entity.ProjectileHitEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerListener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.util.Vector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Soaks the plug-in against a fake server.  Round after round, players
+ * join, fire every type of flaming arrow from their quiver at pigs and
+ * quit again; some arrows land, some vanish in flight, and the pigs either
+ * burn to death or despawn.  The largest size of every collection watched by
+ * the {@link LeakWatchdog} is noted over a few warm-up rounds, and after
+ * that no round may leave a collection any larger, give or take a little
+ * slack.  The watchdog itself never runs, so nothing is pruned for the
+ * plug-in.
+ * <p>
+ * A hundred rounds are played by default.  Set the
+ * <code>flamingarrows.soak.rounds</code> system property to play more; a
+ * few thousand rounds run millions of events through the plug-in.
+ * @author Geoffrey Davis
+ */
+public class LeakSoakTest {
+    /**
+     * Enables the plug-in against a fresh fake server and data folder.
+     * @throws IOException if the data folder could not be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        // Keep the per-arrow log messages out of the test output.
+        // Hold on to the logger so the level isn't lost if it's collected.
+        logger = Logger.getLogger("Minecraft");
+        loggerLevel = logger.getLevel();
+        logger.setLevel(Level.WARNING);
+
+        dataFolder = File.createTempFile("flamingarrows", "");
+        if (dataFolder.delete() == false || dataFolder.mkdir() == false)
+            throw new IOException("Could not create " + dataFolder);
+
+        // The scheduler runs tasks only when the test ticks it.
+        scheduler = new FakeScheduler();
+
+        // Capture the listeners as the plug-in registers them.
+        final PluginManager pluginManager = fake(PluginManager.class, new Fake()
+            .answer("registerEvent", new Answer() {
+                public Object answer(Object[] args) {
+                    listeners.put((Event.Type) args[0], (Listener) args[1]);
+                    return null;
+                }
+            }));
+
+        final Server server = fake(Server.class, new Fake()
+            .set("getScheduler", fake(BukkitScheduler.class, scheduler))
+            .set("getPluginManager", pluginManager)
+            .answer("getOnlinePlayers", new Answer() {
+                public Object answer(Object[] args) {
+                    return online.toArray(new Player[online.size()]);
+                }
+            }));
+
+        world = fake(World.class, new Fake()
+            .set("getName", "world")
+            .answer("getLivingEntities", new Answer() {
+                public Object answer(Object[] args) {
+                    return new ArrayList<LivingEntity>(pigs);
+                }
+            }));
+
+        // Turn the quiver on so shots never need a real inventory.  The
+        // plug-in reloads config.yml when it's enabled, so the setting has
+        // to be in the file.
+        final FileWriter fileWriter =
+            new FileWriter(new File(dataFolder, "config.yml"));
+        try {
+            fileWriter.write(
+                    "flaming-arrows:\n" +
+                    "  quiver:\n" +
+                    "    enabled: true\n");
+        } finally {
+            fileWriter.close();
+        }
+
+        // Start the plug-in the way the server would.
+        plugin = new FlamingArrows();
+        plugin.initialize(null, server,
+                new PluginDescriptionFile("FlamingArrows", "soak",
+                        FlamingArrows.class.getName()),
+                dataFolder, new File(dataFolder, "FlamingArrows.jar"),
+                getClass().getClassLoader());
+        plugin.onEnable();
+        assertTrue("the quiver is disabled",
+                plugin.getSettings().isQuiverEnabled());
+
+        playerListener = (PlayerListener) listeners.get(Event.Type.PLAYER_JOIN);
+        entityListener = (EntityListener) listeners.get(Event.Type.ENTITY_DAMAGE);
+    }
+
+    /**
+     * Disables the plug-in and removes the data folder.
+     */
+    @After
+    public void tearDown() {
+        if (plugin != null)
+            plugin.onDisable();
+        delete(dataFolder);
+        logger.setLevel(loggerLevel);
+    }
+
+    /**
+     * Checks that no watched collection grows without bound.
+     */
+    @Test
+    public void collectionsStayBounded() {
+        final int rounds = Integer.getInteger("flamingarrows.soak.rounds", ROUNDS);
+        final List<LeakWatchdog.Probe> probes = plugin.getWatchdog().getProbes();
+        final int[] peaks = new int[probes.size()];
+        for (int round = 0; round < rounds; ++round) {
+            playRound(round);
+
+            // Sample without pruning, since the watchdog is off by default.
+            for (int i = 0; i < peaks.length; ++i) {
+                final int size = probes.get(i).size();
+                if (round < WARM_UP_ROUNDS) {
+                    // Note the largest size while the plug-in warms up.
+                    peaks[i] = Math.max(peaks[i], size);
+                } else {
+                    // Afterwards the collection must stay flat.
+                    assertTrue(probes.get(i).getName() + " held " + size +
+                            " entries after round " + round + ", up from " +
+                            peaks[i] + " while warming up",
+                            size <= peaks[i] + SLACK);
+                }
+            }
+        }
+
+        // Everyone has left, so nobody should still be remembered as
+        // firing flaming arrows.
+        assertEquals(0, plugin.getArrowManager().getPlayers().size());
+    }
+
+    /**
+     * Plays one round: players join, shoot at pigs and quit, and the pigs
+     * die or despawn.
+     * @param round the round number
+     */
+    private void playRound(int round) {
+        // A fresh herd of pigs for the players to shoot.
+        for (int i = 0; i < PIGS; ++i) {
+            pigs.add(fake(Pig.class, entity(new Location(world, i, 64, 8))));
+        }
+
+        // The same player names keep coming back with new entities.
+        final ArrowType[] types = ArrowType.values();
+        for (int i = 0; i < PLAYERS; ++i) {
+            final Player player = join("player" + i);
+            plugin.getArrowManager().setArrowType(player,
+                    types[(round + i) % types.length]);
+
+            for (int shot = 0; shot < SHOTS; ++shot) {
+                shoot(player, pigs.get((i + shot) % PIGS), shot);
+            }
+        }
+        tick(40);
+
+        // Everyone leaves.
+        for (Iterator<Player> it = online.iterator(); it.hasNext();) {
+            final Player player = it.next();
+            it.remove();
+            ((Fake) Proxy.getInvocationHandler(player)).set("isOnline", false);
+            playerListener.onPlayerQuit(new PlayerQuitEvent(player, null));
+        }
+
+        // Half the pigs burn to death and the rest despawn.
+        for (int i = 0; i < pigs.size(); ++i) {
+            final Pig pig = pigs.get(i);
+            final Fake fake = (Fake) Proxy.getInvocationHandler(pig);
+            fake.set("isDead", true);
+            if (i % 2 == 0) {
+                fake.set("getLastDamageCause",
+                        new EntityDamageEvent(pig, DamageCause.FIRE_TICK, 1));
+                final List<ItemStack> drops = new ArrayList<ItemStack>();
+                drops.add(new ItemStack(Material.PORK, 1));
+                entityListener.onEntityDeath(new EntityDeathEvent(pig, drops));
+            }
+        }
+        pigs.clear();
+        tick(20);
+    }
+
+    /**
+     * Brings a new {@link Player} online.
+     * @param name the player's name
+     * @return the {@link Player} object
+     */
+    private Player join(String name) {
+        final Location location = new Location(world, 0, 64, 0);
+        final Fake fake = entity(location)
+            .set("getName", name)
+            .set("isOnline", true)
+            .set("isOp", true);
+        final Player player = fake(Player.class, fake);
+
+        // Player.shootArrow() spawns an arrow flying along the X axis.
+        fake.answer("shootArrow", new Answer() {
+            public Object answer(Object[] args) {
+                final Fake arrow = entity(location)
+                    .set("getShooter", player)
+                    .set("getVelocity", new Vector(1.5, 0, 0));
+                lastArrow = fake(Arrow.class, arrow);
+                return lastArrow;
+            }
+        });
+
+        online.add(player);
+        playerListener.onPlayerJoin(new PlayerJoinEvent(player, null));
+
+        // Fill the player's quiver for the round.
+        final String key = name.toLowerCase();
+        final ArrowStateStore store = plugin.getArrowManager().getStateStore();
+        store.setCounter(key, ArrowStateStore.QUIVER_ARROWS, SHOTS);
+        store.setCounter(key, ArrowStateStore.QUIVER_CHARGES,
+                SHOTS * plugin.getSettings().getFlintAndSteelDurabilityCost());
+        return player;
+    }
+
+    /**
+     * Fires one arrow at a pig.  Most arrows hit the pig and land; every
+     * fifth vanishes in flight without ever landing.
+     * @param player the {@link Player} shooting
+     * @param pig the {@link Pig} being shot
+     * @param shot the shot number within the round
+     */
+    private void shoot(Player player, Pig pig, int shot) {
+        lastArrow = null;
+        playerListener.onPlayerInteract(new PlayerInteractEvent(player,
+                Action.RIGHT_CLICK_AIR, new ItemStack(Material.BOW, 1),
+                null, null));
+        assertTrue("no arrow was fired", lastArrow != null);
+        final Arrow arrow = lastArrow;
+        tick(1);
+
+        if (shot % 5 == 4) {
+            // The arrow fell out of the world.
+            ((Fake) Proxy.getInvocationHandler(arrow)).set("isDead", true);
+            return;
+        }
+
+        entityListener.onEntityDamage(new EntityDamageByProjectileEvent(
+                player, pig, arrow, DamageCause.PROJECTILE, 4));
+        entityListener.onProjectileHit(new ProjectileHitEvent(arrow));
+    }
+
+    /**
+     * Runs the scheduler for a number of ticks.
+     * @param ticks the number of ticks
+     */
+    private void tick(int ticks) {
+        for (int i = 0; i < ticks; ++i) {
+            scheduler.tick();
+        }
+    }
+
+    /**
+     * Creates the {@link Fake} behind a new entity.
+     * @param location the entity's {@link Location}
+     * @return the {@link Fake} object
+     */
+    private Fake entity(Location location) {
+        return new Fake()
+            .set("getEntityId", ++lastEntityId)
+            .set("getLocation", location)
+            .set("getWorld", location.getWorld());
+    }
+
+    /**
+     * Creates a fake implementation of an interface.
+     * @param type the interface
+     * @param handler the {@link InvocationHandler} behind it
+     * @return the fake object
+     */
+    private static <T> T fake(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+                new Class<?>[] { type }, handler));
+    }
+
+    /**
+     * Deletes a file, or a directory and everything in it.
+     * @param file the {@link File} to delete
+     */
+    private static void delete(File file) {
+        if (file == null)
+            return;
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Computes the result of a faked method call.
+     */
+    private interface Answer {
+        /**
+         * Answers a call.
+         * @param args the call arguments, or <code>null</code>
+         * @return the result
+         */
+        Object answer(Object[] args);
+    }
+
+    /**
+     * Backs a fake object with a map of method results.  A setter stores
+     * its argument as the result of the matching getter, and
+     * <code>remove()</code> marks the object dead.  Anything else returns
+     * zero, <code>false</code>, an empty list or <code>null</code>.
+     */
+    private static class Fake implements InvocationHandler {
+        /**
+         * Sets the computed result of a method.
+         * @param method the method name
+         * @param answer the {@link Answer} object
+         * @return this {@link Fake} object
+         */
+        Fake answer(String method, Answer answer) {
+            results.put(method, answer);
+            return this;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public synchronized Object invoke(Object proxy, Method method,
+                                          Object[] args) {
+            final String name = method.getName();
+            if (name.equals("equals"))
+                return proxy == args[0];
+            if (name.equals("hashCode"))
+                return System.identityHashCode(proxy);
+            if (name.equals("toString"))
+                return "Fake" + results.get("getEntityId");
+            if (name.equals("remove") && args == null) {
+                results.put("isDead", true);
+                return null;
+            }
+            if (name.startsWith("set") && args != null && args.length == 1 &&
+                results.containsKey(name) == false) {
+                results.put("get" + name.substring(3), args[0]);
+                return null;
+            }
+
+            final Object result = results.get(name);
+            if (result instanceof Answer)
+                return ((Answer) result).answer(args);
+            if (result != null)
+                return result;
+
+            final Class<?> type = method.getReturnType();
+            if (type == boolean.class)
+                return false;
+            if (type == int.class)
+                return 0;
+            if (type == long.class)
+                return 0L;
+            if (type == double.class)
+                return 0.0;
+            if (type == float.class)
+                return 0.0f;
+            if (type == short.class)
+                return (short) 0;
+            if (type == byte.class)
+                return (byte) 0;
+            if (type == List.class)
+                return new ArrayList<Object>();
+            return null;
+        }
+
+        /**
+         * Sets the result of a method.
+         * @param method the method name
+         * @param result the result
+         * @return this {@link Fake} object
+         */
+        synchronized Fake set(String method, Object result) {
+            results.put(method, result);
+            return this;
+        }
+
+        /**
+         * The method results, by method name.
+         */
+        private final Map<String, Object> results = new HashMap<String, Object>();
+    }
+
+    /**
+     * Backs a fake {@link BukkitScheduler} which only runs tasks when it's
+     * ticked.  Tasks may be scheduled from any thread.
+     */
+    private static class FakeScheduler implements InvocationHandler {
+        /**
+         * {@inheritDoc}
+         */
+        public synchronized Object invoke(Object proxy, Method method,
+                                          Object[] args) {
+            final String name = method.getName();
+            if (name.equals("cancelTask")) {
+                tasks.remove(args[0]);
+                return null;
+            }
+            if (name.equals("cancelTasks")) {
+                tasks.clear();
+                return null;
+            }
+            if (name.startsWith("schedule")) {
+                // Every task runs on the test's thread, at the earliest on
+                // the next tick.
+                final long delay = args.length > 2 ? (Long) args[2] : 0;
+                final long period = name.endsWith("RepeatingTask") ?
+                        (Long) args[3] : -1;
+                tasks.put(++lastTaskId, new Task((Runnable) args[1],
+                        tick + Math.max(delay, 1), period));
+                return lastTaskId;
+            }
+            return method.getReturnType() == boolean.class ? false : null;
+        }
+
+        /**
+         * Advances one tick, running the tasks which are due.
+         */
+        void tick() {
+            // Pick out the due tasks, then run them without holding the
+            // lock so they can schedule more.
+            final List<Runnable> due = new ArrayList<Runnable>();
+            synchronized (this) {
+                ++tick;
+                for (Iterator<Task> it = tasks.values().iterator(); it.hasNext();) {
+                    final Task task = it.next();
+                    if (task.next > tick)
+                        continue;
+                    due.add(task.runnable);
+                    if (task.period > 0) {
+                        task.next = tick + task.period;
+                    } else {
+                        it.remove();
+                    }
+                }
+            }
+            for (Runnable runnable: due) {
+                runnable.run();
+            }
+        }
+
+        /**
+         * A scheduled task.
+         */
+        private static class Task {
+            /**
+             * Constructs a new {@link Task} instance.
+             * @param runnable the {@link Runnable} to run
+             * @param next the tick at which it next runs
+             * @param period the ticks between runs, or <code>-1</code> to
+             *      run once
+             */
+            Task(Runnable runnable, long next, long period) {
+                this.runnable = runnable;
+                this.next = next;
+                this.period = period;
+            }
+
+            /**
+             * The tick at which the task next runs.
+             */
+            long next;
+
+            /**
+             * The ticks between runs, or <code>-1</code> to run once.
+             */
+            final long period;
+
+            /**
+             * The {@link Runnable} to run.
+             */
+            final Runnable runnable;
+        }
+
+        /**
+         * The ID of the last task scheduled.
+         */
+        private int lastTaskId = 0;
+
+        /**
+         * The scheduled tasks, by task ID, in the order they were added.
+         */
+        private final Map<Integer, Task> tasks =
+            new LinkedHashMap<Integer, Task>();
+
+        /**
+         * The current tick.
+         */
+        private long tick = 0;
+    }
+
+    /**
+     * The number of pigs spawned in each round.
+     */
+    private static final int PIGS = 10;
+
+    /**
+     * The number of players who join in each round.
+     */
+    private static final int PLAYERS = 20;
+
+    /**
+     * The number of rounds played, unless the
+     * <code>flamingarrows.soak.rounds</code> system property says otherwise.
+     */
+    private static final int ROUNDS = 100;
+
+    /**
+     * The number of arrows each player fires in a round.
+     */
+    private static final int SHOTS = 10;
+
+    /**
+     * The number of entries a collection may grow by after warming up.
+     */
+    private static final int SLACK = 8;
+
+    /**
+     * The number of rounds over which the largest size of each collection
+     * is noted.  Collections pruned as they double only shrink every few
+     * rounds, so this covers several of their cycles.
+     */
+    private static final int WARM_UP_ROUNDS = 30;
+
+    /**
+     * The plug-in's data folder.
+     */
+    private File dataFolder;
+
+    /**
+     * The entity listener registered by the plug-in.
+     */
+    private EntityListener entityListener;
+
+    /**
+     * The last arrow fired.
+     */
+    private Arrow lastArrow;
+
+    /**
+     * The last entity ID handed out.
+     */
+    private int lastEntityId = 0;
+
+    /**
+     * The listeners registered by the plug-in, by event type.
+     */
+    private final Map<Event.Type, Listener> listeners =
+        new HashMap<Event.Type, Listener>();
+
+    /**
+     * The server logger.
+     */
+    private Logger logger;
+
+    /**
+     * The level of the server logger before the test.
+     */
+    private Level loggerLevel;
+
+    /**
+     * The players online.
+     */
+    private final List<Player> online = new ArrayList<Player>();
+
+    /**
+     * The pigs in the world.
+     */
+    private final List<Pig> pigs = new ArrayList<Pig>();
+
+    /**
+     * The player listener registered by the plug-in.
+     */
+    private PlayerListener playerListener;
+
+    /**
+     * The plug-in under test.
+     */
+    private FlamingArrows plugin;
+
+    /**
+     * The fake scheduler.
+     */
+    private FakeScheduler scheduler;
+
+    /**
+     * The fake world.
+     */
+    private World world;
+}